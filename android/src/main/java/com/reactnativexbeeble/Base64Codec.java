@@ -0,0 +1,121 @@
+package com.reactnativexbeeble;
+
+import java.util.Arrays;
+
+/**
+ * Base64 decoding straight from the bridge string into the payload array,
+ * without the intermediate copies made by {@link android.util.Base64}.
+ * Pure Java, so it also runs in JVM tests.
+ */
+final class Base64Codec {
+    private static final char[] ENCODE =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] DECODE = new int[128];
+    // encoding of a whole relay frame fits, longer data get their own buffer
+    private static final ThreadLocal<char[]> ENCODE_BUFFER = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[(ChunkSizer.MAX_RELAY_DATA_SIZE + 2) / 3 * 4];
+        }
+    };
+
+    static {
+        Arrays.fill(DECODE, -1);
+        for (int i = 0; i < ENCODE.length; i++) {
+            DECODE[ENCODE[i]] = i;
+        }
+        // url safe variant
+        DECODE['-'] = 62;
+        DECODE['_'] = 63;
+    }
+
+    private Base64Codec() {
+    }
+
+    static int decodedLength(String value) {
+        int length = value.length();
+        while (length > 0 && value.charAt(length - 1) == '=') {
+            length--;
+        }
+        return length * 3 / 4;
+    }
+
+    static byte[] decode(String value) {
+        byte[] result = new byte[decodedLength(value)];
+        decode(value, result, 0);
+        return result;
+    }
+
+    /**
+     * Decodes value into an array taken from pool, invalid value does not leak the array.
+     */
+    static byte[] decode(String value, FramePool pool) {
+        byte[] result = pool.acquire(decodedLength(value));
+        try {
+            decode(value, result, 0);
+        } catch (IllegalArgumentException e) {
+            pool.release(result);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Decodes value into target starting at offset.
+     *
+     * @return number of bytes written
+     */
+    static int decode(String value, byte[] target, int offset) {
+        int length = decodedLength(value);
+        int position = offset;
+        int end = offset + length;
+        int bits = 0;
+        int accumulator = 0;
+        for (int i = 0; i < value.length() && position < end; i++) {
+            char c = value.charAt(i);
+            int digit = c < 128 ? DECODE[c] : -1;
+            if (digit < 0) {
+                if (c == '=') {
+                    break;
+                }
+                throw new IllegalArgumentException("Invalid base64 character '" + c + "'");
+            }
+            accumulator = (accumulator << 6) | digit;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                target[position++] = (byte) (accumulator >> bits);
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Encodes data with padding and without line breaks.
+     */
+    static String encode(byte[] data) {
+        int length = (data.length + 2) / 3 * 4;
+        char[] out = ENCODE_BUFFER.get();
+        if (out.length < length) {
+            out = new char[length];
+        }
+        int position = 0;
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+            out[position++] = ENCODE[bits >> 18];
+            out[position++] = ENCODE[(bits >> 12) & 0x3F];
+            out[position++] = ENCODE[(bits >> 6) & 0x3F];
+            out[position++] = ENCODE[bits & 0x3F];
+        }
+        int remaining = data.length - i;
+        if (remaining > 0) {
+            int bits = (data[i] & 0xFF) << 16 | (remaining == 2 ? (data[i + 1] & 0xFF) << 8 : 0);
+            out[position++] = ENCODE[bits >> 18];
+            out[position++] = ENCODE[(bits >> 12) & 0x3F];
+            out[position++] = remaining == 2 ? ENCODE[(bits >> 6) & 0x3F] : '=';
+            out[position] = '=';
+        }
+        return new String(out, 0, length);
+    }
+}
@@ -0,0 +1,140 @@
+package com.reactnativexbeeble;
+
+import android.content.Context;
+
+import com.digi.xbee.api.android.XBeeBLEDevice;
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IPacketReceiveListener;
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+import com.digi.xbee.api.models.XBee16BitAddress;
+import com.digi.xbee.api.models.XBee64BitAddress;
+import com.digi.xbee.api.models.XBeeLocalInterface;
+import com.digi.xbee.api.packet.XBeePacket;
+import com.digi.xbee.api.packet.common.ATCommandPacket;
+import com.digi.xbee.api.packet.common.ATCommandQueuePacket;
+import com.digi.xbee.api.packet.common.ATCommandResponsePacket;
+import com.digi.xbee.api.packet.common.TransmitPacket;
+import com.digi.xbee.api.packet.common.TransmitStatusPacket;
+import com.digi.xbee.api.packet.relay.UserDataRelayPacket;
+
+/**
+ * {@link XbeeLink} of a real device connected over BLE.
+ */
+class BleXbeeLink implements XbeeLink {
+    private final XBeeBLEDevice device;
+    private volatile TransmitStatusListener transmitStatusListener;
+    private volatile AtResponseListener atResponseListener;
+    private boolean packetListenerAdded;
+    private final IPacketReceiveListener packetListener = new IPacketReceiveListener() {
+        @Override
+        public void packetReceived(XBeePacket packet) {
+            TransmitStatusListener listener = transmitStatusListener;
+            if (listener != null && packet instanceof TransmitStatusPacket) {
+                TransmitStatusPacket status = (TransmitStatusPacket) packet;
+                listener.transmitStatusReceived(status.getFrameID(), status.getTransmitStatus().getId(),
+                    status.getTransmitRetryCount());
+            }
+            AtResponseListener atListener = atResponseListener;
+            if (atListener != null && packet instanceof ATCommandResponsePacket) {
+                ATCommandResponsePacket response = (ATCommandResponsePacket) packet;
+                atListener.atResponseReceived(response.getFrameID(), response.getCommand(),
+                    response.getStatus().getId(), response.getCommandValue());
+            }
+        }
+    };
+
+    BleXbeeLink(Context context, String address, String password) {
+        this.device = new XBeeBLEDevice(context, address, password);
+    }
+
+    static Factory factory(final Context context) {
+        return new Factory() {
+            @Override
+            public XbeeLink create(String address, String password) {
+                return new BleXbeeLink(context, address, password);
+            }
+        };
+    }
+
+    XBeeBLEDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public void open() throws XBeeException {
+        device.open();
+    }
+
+    @Override
+    public void close() {
+        device.close();
+    }
+
+    @Override
+    public void addUserDataRelayListener(IUserDataRelayReceiveListener listener) {
+        device.addUserDataRelayListener(listener);
+    }
+
+    @Override
+    public void removeUserDataRelayListener(IUserDataRelayReceiveListener listener) {
+        device.removeUserDataRelayListener(listener);
+    }
+
+    @Override
+    public void sendUserDataRelay(XBeeLocalInterface destInterface, byte[] data) throws XBeeException {
+        device.sendUserDataRelay(destInterface, data);
+    }
+
+    @Override
+    public void sendUserDataRelayAsync(XBeeLocalInterface destInterface, byte[] data) throws XBeeException {
+        device.sendPacketAsync(new UserDataRelayPacket(device.getNextFrameID(), destInterface, data));
+    }
+
+    @Override
+    public synchronized void setTransmitStatusListener(TransmitStatusListener listener) {
+        transmitStatusListener = listener;
+        updatePacketListener();
+    }
+
+    @Override
+    public synchronized void setAtResponseListener(AtResponseListener listener) {
+        atResponseListener = listener;
+        updatePacketListener();
+    }
+
+    /**
+     * Packet listener is registered on the device only while somebody waits for packets.
+     */
+    private void updatePacketListener() {
+        boolean needed = transmitStatusListener != null || atResponseListener != null;
+        if (needed && !packetListenerAdded) {
+            device.addPacketListener(packetListener);
+        } else if (!needed && packetListenerAdded) {
+            device.removePacketListener(packetListener);
+        }
+        packetListenerAdded = needed;
+    }
+
+    @Override
+    public void sendAtCommandAsync(int frameId, String command, byte[] value, boolean queued) throws XBeeException {
+        device.sendPacketAsync(queued ? new ATCommandQueuePacket(frameId, command, value)
+            : new ATCommandPacket(frameId, command, value));
+    }
+
+    @Override
+    public int nextFrameId() {
+        return device.getNextFrameID();
+    }
+
+    @Override
+    public void sendTransmitAsync(int frameId, String destination, byte[] data, int radius, int options)
+            throws XBeeException {
+        device.sendPacketAsync(new TransmitPacket(frameId, new XBee64BitAddress(destination),
+            XBee16BitAddress.UNKNOWN_ADDRESS, radius, options, data));
+    }
+
+    @Override
+    public void requestConnectionPriority(int priority) {
+        device.requestConnectionPriority(priority);
+    }
+}
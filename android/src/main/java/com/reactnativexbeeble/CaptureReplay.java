@@ -0,0 +1,74 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays frames of a {@link FrameCapture} again with their original timing scaled by
+ * speed, 0 plays them as fast as they can be sent. Sent frames go to the devices
+ * through the target, received frames are handed to the target as if the device sent
+ * them. Sends block as they did when captured, the lag behind the captured timing
+ * shows whether the link keeps up with the traffic.
+ */
+class CaptureReplay {
+    interface Target {
+        void send(String address, boolean bulk, int iface, byte[] data) throws XBeeException, InterruptedException;
+
+        void receive(String address, int iface, byte[] data);
+    }
+
+    static class Result {
+        long frames;
+        long bytesSent;
+        long bytesReceived;
+        long capturedMs;
+        long elapsedMs;
+        long maxLagMs;
+    }
+
+    private final List<FrameCapture.Frame> frames;
+    private final double speed;
+
+    CaptureReplay(List<FrameCapture.Frame> frames, double speed) {
+        this.frames = frames;
+        this.speed = Math.max(0, speed);
+    }
+
+    Result run(Target target) throws XBeeException, InterruptedException {
+        Result result = new Result();
+        if (frames.isEmpty()) {
+            return result;
+        }
+        long firstMicros = frames.get(0).timeMicros;
+        long start = System.nanoTime();
+        long maxLagNanos = 0;
+        for (FrameCapture.Frame frame : frames) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (speed > 0) {
+                long due = start + (long) ((frame.timeMicros - firstMicros) * 1000 / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } else {
+                    maxLagNanos = Math.max(maxLagNanos, -wait);
+                }
+            }
+            if (frame.isSent()) {
+                target.send(frame.address, frame.type == FrameCapture.SENT_BULK, frame.iface, frame.data);
+                result.bytesSent += frame.data.length;
+            } else {
+                target.receive(frame.address, frame.iface, frame.data);
+                result.bytesReceived += frame.data.length;
+            }
+            result.frames++;
+        }
+        result.capturedMs = (frames.get(frames.size() - 1).timeMicros - firstMicros) / 1000;
+        result.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        result.maxLagMs = TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+        return result;
+    }
+}
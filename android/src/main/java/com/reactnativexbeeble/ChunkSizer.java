@@ -0,0 +1,83 @@
+package com.reactnativexbeeble;
+
+/**
+ * Picks the payload size of file chunks for one connection.
+ *
+ * Sizes are aligned so that the whole API frame (frame overhead, transfer header
+ * and payload) fills complete ATT packets of the negotiated MTU. The size grows by
+ * one ATT packet after a run of clean chunks and is halved when a chunk is lost.
+ */
+class ChunkSizer {
+    static final int DEFAULT_MTU = 23;
+    static final int MIN_CHUNK_SIZE = 16;
+    static final int MAX_RELAY_DATA_SIZE = 255;
+
+    // start delimiter, length, frame type, frame id, interface and checksum of API frame 0x2D
+    private static final int API_FRAME_OVERHEAD = 7;
+    private static final int ATT_OVERHEAD = 3;
+    private static final int GROW_AFTER_CHUNKS = 16;
+
+    private final int attPayload;
+    private final int frameOverhead;
+    private final int minSize;
+    private final int maxSize;
+    private final boolean adaptive;
+    private int size;
+    private int cleanChunks;
+
+    ChunkSizer(int mtu, int headerSize, int initialSize, int maxSize) {
+        this(mtu, headerSize, initialSize, maxSize, true);
+    }
+
+    private ChunkSizer(int mtu, int headerSize, int initialSize, int maxSize, boolean adaptive) {
+        this.adaptive = adaptive;
+        this.attPayload = Math.max(1, mtu - ATT_OVERHEAD);
+        this.frameOverhead = API_FRAME_OVERHEAD + headerSize;
+        this.maxSize = Math.max(MIN_CHUNK_SIZE, Math.min(maxSize, MAX_RELAY_DATA_SIZE - headerSize));
+        this.minSize = Math.min(MIN_CHUNK_SIZE, this.maxSize);
+        this.size = align(initialSize);
+    }
+
+    /**
+     * Chunk size which is never changed, used for devices that do not report lost chunks.
+     */
+    static ChunkSizer fixed(int size, int headerSize) {
+        return new ChunkSizer(DEFAULT_MTU, headerSize, size, size, false);
+    }
+
+    synchronized int getSize() {
+        return size;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized void onChunkDelivered() {
+        if (adaptive && ++cleanChunks >= GROW_AFTER_CHUNKS) {
+            cleanChunks = 0;
+            size = align(size + attPayload);
+        }
+    }
+
+    synchronized void onChunkLost() {
+        if (!adaptive) {
+            return;
+        }
+        cleanChunks = 0;
+        size = align(size / 2);
+    }
+
+    /**
+     * Rounds size down to the largest payload whose frame ends on an ATT packet boundary.
+     */
+    private int align(int requested) {
+        int bounded = Math.max(minSize, Math.min(maxSize, requested));
+        if (!adaptive) {
+            return bounded;
+        }
+        int packets = (bounded + frameOverhead) / attPayload;
+        int aligned = packets * attPayload - frameOverhead;
+        return aligned >= minSize ? aligned : bounded;
+    }
+}
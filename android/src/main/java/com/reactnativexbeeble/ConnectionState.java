@@ -0,0 +1,23 @@
+package com.reactnativexbeeble;
+
+/**
+ * Lifecycle of a connection to a device.
+ */
+enum ConnectionState {
+    CONNECTING("connecting"),
+    CONNECTED("connected"),
+    RECONNECTING("reconnecting"),
+    DISCONNECTING("disconnecting"),
+    CLOSED("closed"),
+    FAILED("failed");
+
+    private final String name;
+
+    ConnectionState(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+}
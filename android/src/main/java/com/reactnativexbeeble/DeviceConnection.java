@@ -0,0 +1,83 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+
+/**
+ * One connection attempt to a device together with everything registered on it.
+ */
+class DeviceConnection {
+    final String address;
+    final String password;
+    final ReconnectPolicy reconnectPolicy;
+    final XbeeLink.Factory linkFactory;
+    final SendScheduler sendScheduler;
+    final Object reconnectLock = new Object();
+    private ConnectionState state = ConnectionState.CONNECTING;
+    private XbeeLink device;
+    private IUserDataRelayReceiveListener relayListener;
+    private int chunkSize;
+
+    DeviceConnection(String address, String password, ReconnectPolicy reconnectPolicy,
+                     XbeeLink.Factory linkFactory, SendScheduler sendScheduler) {
+        this.address = address;
+        this.password = password;
+        this.reconnectPolicy = reconnectPolicy;
+        this.linkFactory = linkFactory;
+        this.sendScheduler = sendScheduler;
+    }
+
+    synchronized ConnectionState getState() {
+        return state;
+    }
+
+    synchronized XbeeLink getDevice() {
+        return device;
+    }
+
+    synchronized IUserDataRelayReceiveListener getRelayListener() {
+        return relayListener;
+    }
+
+    synchronized void attach(XbeeLink device, IUserDataRelayReceiveListener relayListener) {
+        this.device = device;
+        this.relayListener = relayListener;
+    }
+
+    /**
+     * Replaces the device after a reconnect, only allowed while reconnecting.
+     */
+    synchronized boolean replaceDevice(XbeeLink device) {
+        if (state != ConnectionState.RECONNECTING) {
+            return false;
+        }
+        this.device = device;
+        return true;
+    }
+
+    /**
+     * Last chunk size discovered by file transfers on this connection, 0 when unknown.
+     */
+    synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    synchronized void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Moves to state when the current state is one of from.
+     *
+     * @return previous state or null when the transition is not allowed
+     */
+    synchronized ConnectionState moveTo(ConnectionState to, ConnectionState... from) {
+        for (ConnectionState allowed : from) {
+            if (state == allowed) {
+                ConnectionState previous = state;
+                state = to;
+                return previous;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package com.reactnativexbeeble;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs device operations on a bounded shared pool. Operations of one device are
+ * executed one after another in submission order, different devices run in parallel.
+ */
+class DeviceExecutor {
+    static final int DEFAULT_POOL_SIZE = 4;
+
+    private final ExecutorService pool;
+    private final Map<String, SerialQueue> queues = new ConcurrentHashMap<String, SerialQueue>();
+
+    DeviceExecutor(int poolSize) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "XbeeDevice-" + threadCount.incrementAndGet());
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+    }
+
+    void execute(String address, Runnable task) {
+        SerialQueue queue = queues.get(address);
+        if (queue == null) {
+            synchronized (queues) {
+                queue = queues.get(address);
+                if (queue == null) {
+                    queue = new SerialQueue();
+                    queues.put(address, queue);
+                }
+            }
+        }
+        queue.execute(task);
+    }
+
+    /**
+     * Number of operations of the device waiting or running.
+     */
+    int getQueueDepth(String address) {
+        SerialQueue queue = queues.get(address);
+        return queue != null ? queue.size() : 0;
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+        queues.clear();
+    }
+
+    private class SerialQueue {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        private Runnable active;
+
+        synchronized void execute(final Runnable task) {
+            tasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        synchronized int size() {
+            return tasks.size() + (active != null ? 1 : 0);
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                pool.execute(active);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.reactnativexbeeble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe registry of device connections keyed by address.
+ */
+class DeviceRegistry {
+    interface StateListener {
+        void onStateChanged(DeviceConnection connection, ConnectionState previous, ConnectionState state);
+    }
+
+    private final ConcurrentHashMap<String, DeviceConnection> connections =
+        new ConcurrentHashMap<String, DeviceConnection>();
+    private final StateListener stateListener;
+
+    DeviceRegistry(StateListener stateListener) {
+        this.stateListener = stateListener;
+    }
+
+    DeviceConnection get(String address) {
+        return connections.get(address);
+    }
+
+    List<DeviceConnection> getAll() {
+        return new ArrayList<DeviceConnection>(connections.values());
+    }
+
+    /**
+     * @return device of the connection when it is connected, null otherwise
+     */
+    XbeeLink getConnectedDevice(String address) {
+        DeviceConnection connection = connections.get(address);
+        if (connection == null || connection.getState() != ConnectionState.CONNECTED) {
+            return null;
+        }
+        return connection.getDevice();
+    }
+
+    boolean isConnected(String address) {
+        return getConnectedDevice(address) != null;
+    }
+
+    /**
+     * Registers a new connection in connecting state.
+     *
+     * @return the connection or null when the device is already connecting or connected
+     */
+    DeviceConnection beginConnect(String address, String password, ReconnectPolicy reconnectPolicy,
+                                  XbeeLink.Factory linkFactory, SendScheduler sendScheduler) {
+        DeviceConnection connection = new DeviceConnection(address, password, reconnectPolicy, linkFactory,
+            sendScheduler);
+        while (true) {
+            DeviceConnection existing = connections.putIfAbsent(address, connection);
+            if (existing == null) {
+                stateListener.onStateChanged(connection, ConnectionState.CLOSED, ConnectionState.CONNECTING);
+                return connection;
+            }
+            ConnectionState state = existing.getState();
+            if (state != ConnectionState.CLOSED && state != ConnectionState.FAILED) {
+                return null;
+            }
+            connections.remove(address, existing);
+        }
+    }
+
+    boolean transition(DeviceConnection connection, ConnectionState to, ConnectionState... from) {
+        ConnectionState previous = connection.moveTo(to, from);
+        if (previous == null) {
+            return false;
+        }
+        if (to == ConnectionState.CLOSED || to == ConnectionState.FAILED) {
+            connections.remove(connection.address, connection);
+        }
+        stateListener.onStateChanged(connection, previous, to);
+        return true;
+    }
+}
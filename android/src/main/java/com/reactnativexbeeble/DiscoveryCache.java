@@ -0,0 +1,171 @@
+package com.reactnativexbeeble;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filters scan results and remembers discovered devices, so a device is reported
+ * again only when its RSSI or advertising data changes meaningfully. Changes are
+ * emitted right away or collected and emitted periodically in one batch.
+ */
+class DiscoveryCache {
+    static final int DEFAULT_RSSI_DELTA = 5;
+
+    private static final int AD_TYPE_MANUFACTURER_DATA = 0xFF;
+
+    interface Emitter {
+        void emitPeripheral(Peripheral peripheral);
+
+        void emitPeripherals(List<Peripheral> peripherals);
+    }
+
+    static class Peripheral {
+        final String address;
+        final String name;
+        final int rssi;
+        final byte[] scanRecord;
+        final boolean connectable;
+
+        Peripheral(String address, String name, int rssi, byte[] scanRecord, boolean connectable) {
+            this.address = address;
+            this.name = name;
+            this.rssi = rssi;
+            this.scanRecord = scanRecord;
+            this.connectable = connectable;
+        }
+    }
+
+    static class Options {
+        String namePrefix;
+        int manufacturerId = -1;
+        int minRssi = Integer.MIN_VALUE;
+        int rssiDelta = DEFAULT_RSSI_DELTA;
+        long batchIntervalMs;
+
+        static Options fromMap(ReadableMap map) {
+            Options options = new Options();
+            if (map == null) {
+                return options;
+            }
+            if (map.hasKey("namePrefix")) {
+                options.namePrefix = map.getString("namePrefix");
+            }
+            if (map.hasKey("manufacturerId")) {
+                options.manufacturerId = map.getInt("manufacturerId");
+            }
+            if (map.hasKey("minRssi")) {
+                options.minRssi = map.getInt("minRssi");
+            }
+            if (map.hasKey("rssiDelta")) {
+                options.rssiDelta = map.getInt("rssiDelta");
+            }
+            if (map.hasKey("batchInterval")) {
+                options.batchIntervalMs = map.getInt("batchInterval");
+            }
+            return options;
+        }
+    }
+
+    private final Options options;
+    private final Emitter emitter;
+    private final Map<String, Peripheral> discovered = new HashMap<String, Peripheral>();
+    private final Map<String, Peripheral> pending = new HashMap<String, Peripheral>();
+    private ScheduledExecutorService scheduler;
+
+    DiscoveryCache(Options options, Emitter emitter) {
+        this.options = options;
+        this.emitter = emitter;
+    }
+
+    Options getOptions() {
+        return options;
+    }
+
+    void start() {
+        if (options.batchIntervalMs > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, options.batchIntervalMs, options.batchIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        flush();
+    }
+
+    void onResult(String address, String name, int rssi, byte[] scanRecord, boolean connectable) {
+        if (rssi < options.minRssi) {
+            return;
+        }
+        if (options.namePrefix != null && (name == null || !name.startsWith(options.namePrefix))) {
+            return;
+        }
+        if (options.manufacturerId >= 0 && !hasManufacturerData(scanRecord, options.manufacturerId)) {
+            return;
+        }
+        Peripheral peripheral = new Peripheral(address, name, rssi, scanRecord, connectable);
+        synchronized (this) {
+            Peripheral previous = discovered.get(address);
+            if (previous != null && Math.abs(previous.rssi - rssi) < options.rssiDelta
+                && Arrays.equals(previous.scanRecord, scanRecord)) {
+                return;
+            }
+            discovered.put(address, peripheral);
+            if (options.batchIntervalMs > 0) {
+                pending.put(address, peripheral);
+                return;
+            }
+        }
+        emitter.emitPeripheral(peripheral);
+    }
+
+    private void flush() {
+        List<Peripheral> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<Peripheral>(pending.values());
+            pending.clear();
+        }
+        emitter.emitPeripherals(batch);
+    }
+
+    private static boolean hasManufacturerData(byte[] scanRecord, int manufacturerId) {
+        if (scanRecord == null) {
+            return false;
+        }
+        int index = 0;
+        while (index < scanRecord.length) {
+            int length = scanRecord[index] & 0xFF;
+            if (length == 0 || index + length >= scanRecord.length) {
+                break;
+            }
+            int type = scanRecord[index + 1] & 0xFF;
+            if (type == AD_TYPE_MANUFACTURER_DATA && length >= 3) {
+                int id = (scanRecord[index + 2] & 0xFF) | ((scanRecord[index + 3] & 0xFF) << 8);
+                if (id == manufacturerId) {
+                    return true;
+                }
+            }
+            index += length + 1;
+        }
+        return false;
+    }
+}
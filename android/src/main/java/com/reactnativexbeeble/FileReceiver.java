@@ -0,0 +1,341 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Receives a file from the device, the reverse of an acknowledged {@link FileTransfer}.
+ * The device sends with the same frames as the phone does, the phone answers:
+ * <pre>
+ *   phone  -> device  'G' resumeOffset[4] chunkSize[2] request...  ask for a file, request is up to the app
+ *   device -> phone   'S' length[4] chunkSize[2] resumeOffset[4]
+ *   phone  -> device  'A' offset[4]                 offset the phone continues from
+ *   device -> phone   'F' offset[4] payload          data chunk
+ *   phone  -> device  'A' offset[4]                 cumulative ack
+ *   phone  -> device  'N' offset[4]                 chunk starting at offset is missing
+ *   device -> phone   'E' length[4] crc32[4]         end of file
+ *   phone  -> device  'C' status[1]                 0 when length and crc match
+ *   phone  -> device  'X'                           receive cancelled
+ * </pre>
+ * Frames are handled on the thread of {@link #run()}. All frames received at once are
+ * processed before one ack is sent, so acks are coalesced when the link is busy.
+ * Chunks received out of order are kept until the gap is filled.
+ */
+class FileReceiver {
+    static final byte FRAME_GET = 'G';
+
+    private static final int MAX_PENDING_CHUNKS = 64;
+    private static final int MAX_RETRIES = 8;
+    private static final long HANDSHAKE_TIMEOUT_MS = 3000;
+    private static final long IDLE_TIMEOUT_MS = 1000;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    interface ProgressListener {
+        void onProgress(FileReceiver receiver);
+    }
+
+    private final FileTransfer.FrameSender sender;
+    // released once run returns, a completed receiver only answers repeated end frames
+    private OutputStream output;
+    private CRC32 crc;
+    private final byte[] request;
+    private final int maxChunkSize;
+    private final LinkedBlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>();
+    private final TreeMap<Long, byte[]> pending = new TreeMap<Long, byte[]>();
+    private ProgressListener progressListener;
+
+    private volatile boolean cancelled;
+    private volatile long length = -1;
+    private volatile long expected;
+    private volatile byte[] endFrame;
+    private long acked = -1;
+    private long nacked = -1;
+    private long nacks;
+    private long startTime;
+    private long lastProgress;
+
+    /**
+     * Receiver writing to output, see {@link #open}.
+     */
+    FileReceiver(FileTransfer.FrameSender sender, OutputStream output, long offset, CRC32 crc,
+                 byte[] request, int maxChunkSize) {
+        this(sender, request, maxChunkSize);
+        open(output, offset, crc);
+    }
+
+    /**
+     * Receiver whose output is given by {@link #open} before {@link #run()}, so it can be
+     * registered for the device before anything is written.
+     */
+    FileReceiver(FileTransfer.FrameSender sender, byte[] request, int maxChunkSize) {
+        this.sender = sender;
+        this.request = request;
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * @param offset bytes already in output, the device is asked to continue after them
+     * @param crc crc32 of the bytes already in output
+     */
+    void open(OutputStream output, long offset, CRC32 crc) {
+        this.output = output;
+        this.expected = Math.max(0, offset);
+        this.crc = crc;
+    }
+
+    void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @return length announced by the device, -1 before the start frame
+     */
+    long getLength() {
+        return length;
+    }
+
+    long getBytesReceived() {
+        return expected;
+    }
+
+    synchronized long getNacks() {
+        return nacks;
+    }
+
+    long getElapsedMs() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    void cancel() {
+        cancelled = true;
+        frames.offer(new byte[0]);
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true when the whole file was received
+     */
+    boolean isComplete() {
+        return endFrame != null;
+    }
+
+    /**
+     * Takes a frame received from the device. After the file was received only a repeated
+     * end frame is taken, its completion was lost.
+     *
+     * @return true when the frame belonged to the transfer protocol and was consumed
+     */
+    boolean onFrameReceived(byte[] data) {
+        if (data == null || data.length == 0) {
+            return false;
+        }
+        byte[] end = endFrame;
+        if (end != null) {
+            if (!Arrays.equals(end, data)) {
+                return false;
+            }
+            try {
+                sender.sendFrame(new byte[]{FileTransfer.FRAME_COMPLETE, 0});
+            } catch (XBeeException | InterruptedException ignored) {
+                // device asks again
+            }
+            return true;
+        }
+        byte type = data[0];
+        if ((type == FileTransfer.FRAME_START && data.length == 11)
+            || (type == FileTransfer.FRAME_DATA && data.length > FileTransfer.DATA_HEADER_SIZE)
+            || (type == FileTransfer.FRAME_END && data.length == 9)
+            || (type == FileTransfer.FRAME_ABORT && data.length == 1)) {
+            frames.offer(data);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Blocks until the whole file was received and written to output.
+     *
+     * @return length of the file
+     */
+    long run() throws IOException, XBeeException, InterruptedException {
+        if (output == null) {
+            throw new IllegalStateException("Output is not open");
+        }
+        startTime = System.currentTimeMillis();
+        try {
+            handshake();
+            publishProgress(true);
+            int idle = 0;
+            while (true) {
+                byte[] frame = frames.poll(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                checkCancelled();
+                if (frame == null) {
+                    if (++idle > MAX_RETRIES) {
+                        throw new IOException("Device stopped sending at offset " + expected);
+                    }
+                    // the last ack may have been lost, the device retransmits on its own otherwise
+                    sendOffset(FileTransfer.FRAME_ACK, expected);
+                    continue;
+                }
+                idle = 0;
+                boolean needAck = false;
+                do {
+                    needAck |= handle(frame);
+                    if (endFrame != null) {
+                        output.flush();
+                        sender.sendFrame(new byte[]{FileTransfer.FRAME_COMPLETE, 0});
+                        publishProgress(true);
+                        return length;
+                    }
+                } while ((frame = frames.poll()) != null);
+                checkCancelled();
+                if (needAck || expected != acked) {
+                    acked = expected;
+                    sendOffset(FileTransfer.FRAME_ACK, expected);
+                }
+                if (!pending.isEmpty() && nacked != expected) {
+                    nacked = expected;
+                    synchronized (this) {
+                        nacks++;
+                    }
+                    sendOffset(FileTransfer.FRAME_NACK, expected);
+                }
+                publishProgress(false);
+            }
+        } catch (FileTransfer.CancelledException e) {
+            try {
+                sender.sendFrame(new byte[]{FileTransfer.FRAME_ABORT});
+            } catch (XBeeException | InterruptedException ignored) {
+                // device drops the transfer on its own timeout
+            }
+            throw e;
+        } finally {
+            // the caller owns output, the receiver may stay registered for a repeated end frame
+            output = null;
+            crc = null;
+            pending.clear();
+            frames.clear();
+        }
+    }
+
+    private void checkCancelled() throws FileTransfer.CancelledException {
+        if (cancelled) {
+            throw new FileTransfer.CancelledException();
+        }
+    }
+
+    private void handshake() throws IOException, XBeeException, InterruptedException {
+        byte[] frame = new byte[7 + request.length];
+        frame[0] = FRAME_GET;
+        FileTransfer.writeInt(frame, 1, expected);
+        frame[5] = (byte) (maxChunkSize >> 8);
+        frame[6] = (byte) maxChunkSize;
+        System.arraycopy(request, 0, frame, 7, request.length);
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            checkCancelled();
+            sender.sendFrame(frame);
+            long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                byte[] answer = frames.poll(remaining, TimeUnit.MILLISECONDS);
+                checkCancelled();
+                if (answer != null && answer[0] == FileTransfer.FRAME_START) {
+                    handle(answer);
+                    return;
+                }
+                if (answer != null && answer[0] == FileTransfer.FRAME_ABORT) {
+                    throw new IOException("Device refused to send file");
+                }
+            }
+        }
+        throw new IOException("Device did not respond to file request");
+    }
+
+    /**
+     * @return true when the frame needs an ack even if nothing new was received
+     */
+    private boolean handle(byte[] data) throws IOException, XBeeException, InterruptedException {
+        if (data.length == 0) {
+            // wake up by cancel
+            checkCancelled();
+            return false;
+        }
+        switch (data[0]) {
+            case FileTransfer.FRAME_START:
+                if (length < 0) {
+                    length = FileTransfer.readInt(data, 1);
+                    // the device can continue only from where the phone is
+                    if (FileTransfer.readInt(data, 7) != expected) {
+                        throw new IOException("Device does not resume from offset " + expected);
+                    }
+                }
+                sendOffset(FileTransfer.FRAME_ACK, expected);
+                acked = expected;
+                return false;
+            case FileTransfer.FRAME_DATA:
+                long offset = FileTransfer.readInt(data, 1);
+                if (offset == expected) {
+                    append(data);
+                    Map.Entry<Long, byte[]> next;
+                    while ((next = pending.firstEntry()) != null && next.getKey() <= expected) {
+                        pending.pollFirstEntry();
+                        if (next.getKey() == expected) {
+                            append(next.getValue());
+                        }
+                    }
+                    return false;
+                } else if (offset > expected) {
+                    if (pending.size() < MAX_PENDING_CHUNKS) {
+                        pending.put(offset, data);
+                    }
+                    return false;
+                }
+                // duplicate, the ack of it was lost
+                return true;
+            case FileTransfer.FRAME_END:
+                boolean valid = length >= 0 && FileTransfer.readInt(data, 1) == expected
+                    && expected == length && FileTransfer.readInt(data, 5) == crc.getValue();
+                if (!valid) {
+                    sender.sendFrame(new byte[]{FileTransfer.FRAME_COMPLETE, 1});
+                    throw new IOException("Received file does not match length or checksum");
+                }
+                endFrame = data;
+                return false;
+            default:
+                throw new IOException("Device aborted file transfer");
+        }
+    }
+
+    private void append(byte[] data) throws IOException {
+        int count = data.length - FileTransfer.DATA_HEADER_SIZE;
+        output.write(data, FileTransfer.DATA_HEADER_SIZE, count);
+        crc.update(data, FileTransfer.DATA_HEADER_SIZE, count);
+        expected += count;
+    }
+
+    private void sendOffset(byte type, long offset) throws XBeeException, InterruptedException {
+        byte[] frame = new byte[5];
+        frame[0] = type;
+        FileTransfer.writeInt(frame, 1, offset);
+        sender.sendFrame(frame);
+    }
+
+    private void publishProgress(boolean force) {
+        long now = System.currentTimeMillis();
+        if (progressListener != null && (force || now - lastProgress >= PROGRESS_INTERVAL_MS)) {
+            lastProgress = now;
+            progressListener.onProgress(this);
+        }
+    }
+}
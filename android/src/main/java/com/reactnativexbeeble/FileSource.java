@@ -0,0 +1,413 @@
+package com.reactnativexbeeble;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Opens files which are sent to devices. Remote files are streamed through a
+ * {@link PrefetchInputStream}, which fills the disk cache on the way unless caching is off,
+ * or are served from the cache.
+ *
+ * Cached files are keyed by url. An entry is reused without network when it is
+ * younger than maxAge or when its SHA-256 equals the expected one, otherwise it is
+ * revalidated by ETag / Last-Modified and downloaded again only when changed.
+ * The cache is bounded in size, least recently used files are evicted first.
+ */
+class FileSource {
+    static final int PREFETCH_BLOCK_SIZE = 8192;
+    static final int DEFAULT_PREFETCH_BLOCKS = 32;
+    static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String PART_SUFFIX = ".part";
+
+    static class Opened {
+        final InputStream stream;
+        final long length;
+
+        Opened(InputStream stream, long length) {
+            this.stream = stream;
+            this.length = length;
+        }
+    }
+
+    private final File cacheDir;
+    private volatile long maxCacheBytes;
+    private final Map<String, Object> fetchLocks = new ConcurrentHashMap<String, Object>();
+
+    FileSource(File cacheDir, long maxCacheBytes) {
+        this.cacheDir = cacheDir;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    void setMaxCacheBytes(long maxCacheBytes) {
+        this.maxCacheBytes = maxCacheBytes;
+        evict(null);
+    }
+
+    /**
+     * @param cache read through the disk cache, otherwise the url is streamed
+     * @param stage download the whole file into the cache before it is read
+     * @param maxAgeMs cached file younger than this is used without revalidation
+     * @param sha256 expected hex SHA-256 of the content or null
+     */
+    Opened open(String fileUrl, boolean cache, boolean stage, long maxAgeMs, String sha256, int prefetchBlocks)
+        throws IOException {
+        if (stage) {
+            File file = fetch(fileUrl, maxAgeMs, sha256);
+            return new Opened(new BufferedInputStream(new FileInputStream(file), PREFETCH_BLOCK_SIZE), file.length());
+        }
+        URLConnection connection;
+        if (cache) {
+            File file = new File(cacheDir, fileName(fileUrl));
+            synchronized (lockFor(fileUrl)) {
+                connection = revalidate(fileUrl, file, maxAgeMs, sha256);
+                if (connection == null) {
+                    // opened under the lock, so it is not replaced meanwhile
+                    return new Opened(new BufferedInputStream(new FileInputStream(file), PREFETCH_BLOCK_SIZE),
+                        file.length());
+                }
+            }
+            // not cached, the download is sent while it is copied into the cache
+            return new Opened(new PrefetchInputStream(new CachingInputStream(fileUrl, file, connection, sha256),
+                PREFETCH_BLOCK_SIZE, prefetchBlocks), connection.getContentLength());
+        }
+        connection = connect(fileUrl, null);
+        InputStream input = connection.getInputStream();
+        return new Opened(new PrefetchInputStream(input, PREFETCH_BLOCK_SIZE, prefetchBlocks),
+            connection.getContentLength());
+    }
+
+    /**
+     * Returns local copy of the url, downloading it when it is not cached or changed.
+     */
+    File fetch(String fileUrl, long maxAgeMs, String sha256) throws IOException {
+        synchronized (lockFor(fileUrl)) {
+            File file = new File(cacheDir, fileName(fileUrl));
+            URLConnection connection = revalidate(fileUrl, file, maxAgeMs, sha256);
+            if (connection != null) {
+                InputStream input = new CachingInputStream(fileUrl, file, connection, sha256);
+                try {
+                    byte[] buffer = new byte[PREFETCH_BLOCK_SIZE];
+                    while (input.read(buffer) != -1) {
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+            return file;
+        }
+    }
+
+    private Object lockFor(String fileUrl) {
+        Object lock = fetchLocks.get(fileUrl);
+        if (lock == null) {
+            fetchLocks.putIfAbsent(fileUrl, new Object());
+            lock = fetchLocks.get(fileUrl);
+        }
+        return lock;
+    }
+
+    /**
+     * Checks the cached copy of the url, called with the lock of the url held.
+     *
+     * @return connection with the content to download, null when the cached file can be used
+     */
+    private URLConnection revalidate(String fileUrl, File file, long maxAgeMs, String sha256) throws IOException {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + cacheDir);
+        }
+        File metaFile = new File(file.getPath() + META_SUFFIX);
+        Properties meta = file.exists() ? readMeta(metaFile) : null;
+
+        if (meta != null && isFresh(meta, maxAgeMs, sha256)) {
+            touch(file);
+            return null;
+        }
+
+        URLConnection connection = connect(fileUrl, meta);
+        if (meta != null && connection instanceof HttpURLConnection
+            && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            ((HttpURLConnection) connection).disconnect();
+            if (sha256 != null && !sha256.equalsIgnoreCase(meta.getProperty("sha256"))) {
+                throw new IOException("Content of " + fileUrl + " does not match expected SHA-256");
+            }
+            meta.setProperty("fetchedAt", Long.toString(System.currentTimeMillis()));
+            writeMeta(metaFile, meta);
+            touch(file);
+            return null;
+        }
+        return connection;
+    }
+
+    /**
+     * Copies what is read from the url into a part file. The part file becomes the cached
+     * file once the whole content was read and matches its length and SHA-256, a copy which
+     * was not finished is deleted on close.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final String fileUrl;
+        private final File file;
+        private final File partial;
+        private final URLConnection connection;
+        private final long length;
+        private final String sha256;
+        private final MessageDigest digest;
+        private final OutputStream output;
+        private long total;
+        private boolean finished;
+
+        CachingInputStream(String fileUrl, File file, URLConnection connection, String sha256) throws IOException {
+            super(connection.getInputStream());
+            this.fileUrl = fileUrl;
+            this.file = file;
+            this.connection = connection;
+            this.length = connection.getContentLength();
+            this.sha256 = sha256;
+            this.digest = sha256();
+            // part file of its own, transfers of the same url may download it at once
+            this.partial = File.createTempFile(file.getName(), PART_SUFFIX, cacheDir);
+            this.output = new FileOutputStream(partial);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read == -1) {
+                finish();
+                return -1;
+            }
+            output.write(buffer, offset, read);
+            digest.update(buffer, offset, read);
+            total += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // skipped bytes are copied as well
+            byte[] buffer = new byte[(int) Math.min(PREFETCH_BLOCK_SIZE, Math.max(0, count))];
+            long skipped = 0;
+            int read;
+            while (skipped < count && (read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        private synchronized void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            output.close();
+            String hash = toHex(digest.digest());
+            if (length >= 0 && total != length) {
+                partial.delete();
+                throw new IOException("Download of " + fileUrl + " incomplete");
+            }
+            if (sha256 != null && !sha256.equalsIgnoreCase(hash)) {
+                partial.delete();
+                throw new IOException("Content of " + fileUrl + " does not match expected SHA-256");
+            }
+            synchronized (lockFor(fileUrl)) {
+                file.delete();
+                if (!partial.renameTo(file)) {
+                    partial.delete();
+                    throw new IOException("Cannot store cached file " + file);
+                }
+                Properties updated = new Properties();
+                updated.setProperty("url", fileUrl);
+                updated.setProperty("sha256", hash);
+                updated.setProperty("fetchedAt", Long.toString(System.currentTimeMillis()));
+                if (connection.getHeaderField("ETag") != null) {
+                    updated.setProperty("etag", connection.getHeaderField("ETag"));
+                }
+                if (connection.getHeaderField("Last-Modified") != null) {
+                    updated.setProperty("lastModified", connection.getHeaderField("Last-Modified"));
+                }
+                writeMeta(new File(file.getPath() + META_SUFFIX), updated);
+            }
+            evict(file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // wakes up a read waiting for the network
+                super.close();
+            } finally {
+                synchronized (this) {
+                    if (!finished) {
+                        finished = true;
+                        output.close();
+                        partial.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes all cached files.
+     */
+    void clear() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private static boolean isFresh(Properties meta, long maxAgeMs, String sha256) {
+        if (sha256 != null) {
+            // content addressed, the url can not serve anything else that is valid
+            return sha256.equalsIgnoreCase(meta.getProperty("sha256"));
+        }
+        long fetchedAt = Long.parseLong(meta.getProperty("fetchedAt", "0"));
+        return System.currentTimeMillis() - fetchedAt < maxAgeMs;
+    }
+
+    /**
+     * Removes least recently used files until the cache fits its size, keep is never removed.
+     */
+    private synchronized void evict(File keep) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        int count = 0;
+        for (File file : files) {
+            if (isData(file)) {
+                total += file.length();
+                files[count++] = file;
+            }
+        }
+        File[] data = Arrays.copyOf(files, count);
+        Arrays.sort(data, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : data) {
+            if (total <= maxCacheBytes) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+            total -= file.length();
+            // open streams keep reading the deleted file
+            file.delete();
+            new File(file.getPath() + META_SUFFIX).delete();
+        }
+    }
+
+    private static boolean isData(File file) {
+        String name = file.getName();
+        return !name.endsWith(META_SUFFIX) && !name.endsWith(PART_SUFFIX);
+    }
+
+    private static void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    private static Properties readMeta(File metaFile) {
+        if (!metaFile.exists()) {
+            return null;
+        }
+        Properties meta = new Properties();
+        try {
+            InputStream input = new FileInputStream(metaFile);
+            try {
+                meta.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return meta;
+    }
+
+    private static void writeMeta(File metaFile, Properties meta) throws IOException {
+        OutputStream output = new FileOutputStream(metaFile);
+        try {
+            meta.store(output, null);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String fileName(String fileUrl) throws IOException {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(fileUrl.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Opens the url, with meta of a cached copy the request is conditional.
+     */
+    private static URLConnection connect(String fileUrl, Properties meta) throws IOException {
+        URL url = new URL(fileUrl);
+        URLConnection connection = "https".equals(url.getProtocol())
+          ? (HttpsURLConnection)url.openConnection()
+          : (URLConnection)url.openConnection();
+        if (meta != null) {
+            if (meta.getProperty("etag") != null) {
+                connection.setRequestProperty("If-None-Match", meta.getProperty("etag"));
+            }
+            if (meta.getProperty("lastModified") != null) {
+                connection.setRequestProperty("If-Modified-Since", meta.getProperty("lastModified"));
+            }
+        }
+        connection.connect();
+        return connection;
+    }
+}
@@ -0,0 +1,822 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Sends a stream to the device as a sequence of User Data Relay frames.
+ *
+ * In unacknowledged mode the legacy framing is used: every chunk is prefixed
+ * with 'F' and a wrapping 1-byte sequence number and nothing is expected back.
+ *
+ * In acknowledged mode the device has to take part in the transfer:
+ * <pre>
+ *   phone  -> device  'S' length[4] chunkSize[2] resumeOffset[4]
+ *   device -> phone   'A' offset[4]                 offset the device wants to continue from
+ *   phone  -> device  'F' offset[4] payload          data chunk
+ *   device -> phone   'A' offset[4]                 cumulative ack, everything before offset received
+ *   device -> phone   'N' offset[4]                 chunk starting at offset is missing
+ *   phone  -> device  'E' length[4] crc32[4]         end of file
+ *   device -> phone   'C' status[1]                 0 when length and crc match
+ *   phone  -> device  'X'                           transfer cancelled, partial data can be dropped
+ * </pre>
+ * With delta blocks enabled the phone asks for hashes of the image the device already has
+ * and sends a keep frame instead of the data of every block that did not change:
+ * <pre>
+ *   phone  -> device  'Q' blockSize[4]               query block hashes, sent after the handshake
+ *   device -> phone   'H' first[2] total[2] crc32[4]...  crc32 of blocks first.., total blocks of the image
+ *   phone  -> device  'K' offset[4] length[4]        keep length bytes at offset from the current image
+ * </pre>
+ * Keep frames are acknowledged like data chunks.
+ * With compression enabled a chunk may be sent deflated instead of as 'F', chunks
+ * that do not get smaller are sent as they are:
+ * <pre>
+ *   phone  -> device  'Z' offset[4] length[2] deflate  length bytes at offset, raw deflate without header
+ * </pre>
+ * Every 'Z' frame is compressed on its own, offsets and acks stay in bytes of the file.
+ * All numbers are big endian. chunkSize in the start frame is the largest payload
+ * that will be sent, the actual chunk size follows the {@link ChunkSizer}. The number
+ * of chunks in flight is derived from the measured throughput and round trip time
+ * of acknowledgements.
+ *
+ * Frames of chunks come from a {@link FramePool} and go back to it when acknowledged,
+ * plain chunks are read from the stream straight into their frame.
+ *
+ * A running transfer can be paused, which stops sending until it is resumed, or
+ * cancelled, which makes {@link #run()} throw {@link CancelledException}.
+ */
+class FileTransfer {
+    static final byte FRAME_START = 'S';
+    static final byte FRAME_DATA = 'F';
+    static final byte FRAME_END = 'E';
+    static final byte FRAME_ACK = 'A';
+    static final byte FRAME_NACK = 'N';
+    static final byte FRAME_COMPLETE = 'C';
+    static final byte FRAME_ABORT = 'X';
+    static final byte FRAME_QUERY = 'Q';
+    static final byte FRAME_HASHES = 'H';
+    static final byte FRAME_KEEP = 'K';
+    static final byte FRAME_COMPRESSED = 'Z';
+
+    static final int DEFAULT_CHUNK_SIZE = 232;
+    static final int DEFAULT_MAX_WINDOW = 16;
+    static final int LEGACY_HEADER_SIZE = 2;
+    static final int DATA_HEADER_SIZE = 5;
+    static final int COMPRESSED_HEADER_SIZE = 7;
+    static final int MAX_COMPRESSED_INPUT = 4096;
+
+    private static final int INITIAL_WINDOW = 4;
+    private static final int MAX_RETRIES = 8;
+    private static final long MIN_RTO_MS = 250;
+    private static final long MAX_RTO_MS = 5000;
+    private static final long HANDSHAKE_TIMEOUT_MS = 3000;
+    private static final long RATE_INTERVAL_MS = 100;
+    // chunks sent as they are after one did not compress
+    private static final int COMPRESS_BYPASS_CHUNKS = 8;
+    private static final int COMPRESS_ATTEMPTS = 4;
+
+    interface FrameSender {
+        void sendFrame(byte[] frame) throws XBeeException, InterruptedException;
+    }
+
+    interface ProgressListener {
+        void onProgress(FileTransfer transfer);
+    }
+
+    static class CancelledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CancelledException() {
+            super("File transfer cancelled");
+        }
+    }
+
+    private static class Chunk {
+        final long offset;
+        final int length;
+        final byte[] frame;
+        long sentAt;
+        int retries;
+        boolean retransmitted;
+
+        Chunk(long offset, int length, byte[] frame) {
+            this.offset = offset;
+            this.length = length;
+            this.frame = frame;
+        }
+    }
+
+    private final FrameSender sender;
+    private final InputStream input;
+    private final long length;
+    private final ChunkSizer sizer;
+    private final boolean acknowledged;
+    private final int maxWindow;
+    private final long requestedOffset;
+    private ProgressListener progressListener;
+    private int deltaBlockSize;
+    private boolean compress;
+
+    private final FramePool framePool = new FramePool(FramePool.DEFAULT_MAX_PER_LENGTH);
+    private final TreeMap<Long, Chunk> inFlight = new TreeMap<Long, Chunk>();
+    private final ArrayDeque<Long> missing = new ArrayDeque<Long>();
+    private boolean started;
+    private boolean paused;
+    private boolean cancelled;
+    private long resumeOffset = -1;
+    private int completeStatus = -1;
+    private long ackedOffset;
+    private int window;
+    private double srttMs = -1;
+    private double bytesPerMs;
+    private long rateTime;
+    private long ackedWireBytes;
+    private long rateWireBytes;
+
+    private long[] deviceBlocks;
+    private int deviceBlocksReceived;
+    private boolean[] deviceBlockKnown;
+    private byte[] block;
+    private int blockLength;
+    private int blockPosition;
+    private long skippedBytes;
+    private Deflater deflater;
+    private byte[] compressed;
+    private int compressInput;
+    private int compressBypass;
+    private long wireBytes;
+
+    private long sentOffset;
+    private long chunks;
+    private long retransmits;
+    private long startTime;
+
+    FileTransfer(FrameSender sender, InputStream input, long length, ChunkSizer sizer,
+                 boolean acknowledged, int maxWindow, long requestedOffset) {
+        this.sender = sender;
+        this.input = input;
+        this.length = length;
+        this.sizer = sizer;
+        this.acknowledged = acknowledged;
+        this.maxWindow = Math.max(1, maxWindow);
+        this.requestedOffset = Math.max(0, requestedOffset);
+        this.window = Math.min(INITIAL_WINDOW, this.maxWindow);
+    }
+
+    void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Enables skipping of blocks the device already has, only in acknowledged mode.
+     */
+    void setDeltaBlockSize(int deltaBlockSize) {
+        this.deltaBlockSize = deltaBlockSize;
+    }
+
+    /**
+     * Enables deflate of chunks, only in acknowledged mode.
+     */
+    void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @return bytes of all frames written to the device, including retransmits
+     */
+    synchronized long getWireBytes() {
+        return wireBytes;
+    }
+
+    /**
+     * @return bytes the device kept from its current image instead of receiving them
+     */
+    synchronized long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    long getChunks() {
+        return chunks;
+    }
+
+    synchronized long getBytesTransferred() {
+        return acknowledged ? ackedOffset : sentOffset;
+    }
+
+    synchronized int getWindow() {
+        return acknowledged ? window : 1;
+    }
+
+    synchronized long getRetransmits() {
+        return retransmits;
+    }
+
+    long getElapsedMs() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    int getChunkSize() {
+        return sizer.getSize();
+    }
+
+    double getBytesPerSecond() {
+        return getBytesTransferred() * 1000.0 / Math.max(1, getElapsedMs());
+    }
+
+    boolean isAcknowledged() {
+        return acknowledged;
+    }
+
+    void run() throws IOException, XBeeException, InterruptedException {
+        startTime = System.currentTimeMillis();
+        try {
+            if (acknowledged) {
+                runAcknowledged();
+            } else {
+                runUnacknowledged();
+            }
+        } catch (CancelledException e) {
+            if (acknowledged && isStarted()) {
+                try {
+                    sender.sendFrame(new byte[]{FRAME_ABORT});
+                } catch (XBeeException | InterruptedException ignored) {
+                    // device drops the partial file on its own timeout
+                }
+            }
+            throw e;
+        }
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    synchronized void pause() {
+        paused = true;
+        notifyAll();
+    }
+
+    /**
+     * Continues a paused transfer, chunks in flight get a fresh retransmit timeout
+     * so that the pause is not taken for congestion.
+     */
+    synchronized void resume() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        long now = System.currentTimeMillis();
+        for (Chunk chunk : inFlight.values()) {
+            chunk.sentAt = now;
+        }
+        notifyAll();
+    }
+
+    synchronized boolean isPaused() {
+        return paused;
+    }
+
+    private synchronized boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Blocks while paused.
+     *
+     * @throws CancelledException when the transfer was cancelled
+     */
+    private synchronized void checkRunnable() throws CancelledException, InterruptedException {
+        while (paused && !cancelled) {
+            wait();
+        }
+        if (cancelled) {
+            throw new CancelledException();
+        }
+    }
+
+    /**
+     * Handles a frame received from the device while this transfer is running.
+     *
+     * @return true when the frame belonged to the transfer protocol and was consumed
+     */
+    boolean onFrameReceived(byte[] data) {
+        if (!acknowledged || data == null || data.length == 0) {
+            return false;
+        }
+        if ((data[0] == FRAME_ACK || data[0] == FRAME_NACK) && data.length == 5) {
+            long offset = readInt(data, 1);
+            if (data[0] == FRAME_ACK) {
+                onAck(offset);
+            } else {
+                onNack(offset);
+            }
+            return true;
+        }
+        if (data[0] == FRAME_HASHES && data.length >= 5 && (data.length - 5) % 4 == 0) {
+            onHashes(data);
+            return true;
+        }
+        if (data[0] == FRAME_COMPLETE && data.length == 2) {
+            synchronized (this) {
+                completeStatus = data[1] & 0xFF;
+                notifyAll();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void runUnacknowledged() throws IOException, XBeeException, InterruptedException {
+        // Legacy devices do not report lost chunks, so the size stays as configured
+        int chunkSize = sizer.getSize();
+        byte[] data = new byte[chunkSize + LEGACY_HEADER_SIZE];
+        int count;
+        while ((count = readChunk(data, LEGACY_HEADER_SIZE, chunkSize)) > 0) {
+            checkRunnable();
+            chunks++;
+            data[0] = FRAME_DATA;
+            data[1] = (byte) ((chunks % 255) + 1);
+            sender.sendFrame(count != chunkSize
+                ? Arrays.copyOfRange(data, 0, count + LEGACY_HEADER_SIZE) : data);
+            synchronized (this) {
+                sentOffset += count;
+                wireBytes += count + LEGACY_HEADER_SIZE;
+            }
+            publishProgress();
+        }
+    }
+
+    private void runAcknowledged() throws IOException, XBeeException, InterruptedException {
+        long offset = handshake();
+        CRC32 crc = new CRC32();
+        skip(offset, crc);
+        synchronized (this) {
+            ackedOffset = offset;
+            sentOffset = offset;
+            rateTime = System.currentTimeMillis();
+        }
+        if (deltaBlockSize > 0 || compress) {
+            block = new byte[Math.max(deltaBlockSize, compress ? MAX_COMPRESSED_INPUT : 0)];
+        }
+        if (deltaBlockSize > 0) {
+            queryBlocks();
+        }
+        publishProgress();
+        if (compress) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            compressed = new byte[MAX_COMPRESSED_INPUT * 2];
+            compressInput = sizer.getMaxSize();
+        }
+        try {
+            sendChunks(offset, crc);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private void sendChunks(long offset, CRC32 crc) throws IOException, XBeeException, InterruptedException {
+        boolean eof = false;
+        long published = offset;
+        while (true) {
+            checkRunnable();
+            while (!eof && inFlightCount() < currentWindow()) {
+                Chunk chunk = nextChunk(offset, crc);
+                if (chunk == null) {
+                    eof = true;
+                    break;
+                }
+                synchronized (this) {
+                    inFlight.put(offset, chunk);
+                    sentOffset = offset + chunk.length;
+                }
+                send(chunk);
+                offset += chunk.length;
+                chunks++;
+            }
+
+            List<Chunk> resend = new ArrayList<Chunk>();
+            synchronized (this) {
+                while (true) {
+                    if (completeStatus >= 0) {
+                        throw new IOException("Device aborted file transfer with status " + completeStatus);
+                    }
+                    if (paused || cancelled || !missing.isEmpty() || (eof && inFlight.isEmpty())
+                        || (!eof && inFlight.size() < window)) {
+                        break;
+                    }
+                    Chunk oldest = inFlight.firstEntry().getValue();
+                    long remaining = oldest.sentAt + retransmitTimeout() - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        // Nothing heard back in time, assume congestion and shrink the window
+                        window = Math.max(1, window / 2);
+                        sizer.onChunkLost();
+                        missing.add(oldest.offset);
+                        break;
+                    }
+                    wait(remaining);
+                }
+                if (paused || cancelled) {
+                    continue;
+                }
+                if (eof && inFlight.isEmpty() && missing.isEmpty()) {
+                    break;
+                }
+                while (!missing.isEmpty()) {
+                    Chunk chunk = inFlight.get(missing.poll());
+                    if (chunk != null && !resend.contains(chunk)) {
+                        resend.add(chunk);
+                    }
+                }
+            }
+            if (getBytesTransferred() != published) {
+                published = getBytesTransferred();
+                publishProgress();
+            }
+            for (Chunk chunk : resend) {
+                if (++chunk.retries > MAX_RETRIES) {
+                    throw new IOException("Chunk at offset " + chunk.offset + " was not acknowledged");
+                }
+                chunk.retransmitted = true;
+                synchronized (this) {
+                    retransmits++;
+                }
+                send(chunk);
+            }
+        }
+
+        if (length >= 0 && offset != length) {
+            throw new IOException("File length mismatch, expected " + length + " bytes but read " + offset);
+        }
+        finish(offset, crc.getValue());
+    }
+
+    private long handshake() throws XBeeException, InterruptedException, IOException {
+        byte[] frame = new byte[11];
+        frame[0] = FRAME_START;
+        writeInt(frame, 1, length);
+        frame[5] = (byte) (sizer.getMaxSize() >> 8);
+        frame[6] = (byte) sizer.getMaxSize();
+        writeInt(frame, 7, requestedOffset);
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            checkRunnable();
+            sender.sendFrame(frame);
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+                long remaining;
+                while (!started && !cancelled && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+                if (cancelled) {
+                    throw new CancelledException();
+                }
+                if (started) {
+                    return resumeOffset;
+                }
+            }
+        }
+        throw new IOException("Device did not respond to file transfer start");
+    }
+
+    private void finish(long total, long checksum) throws XBeeException, InterruptedException, IOException {
+        byte[] frame = new byte[9];
+        frame[0] = FRAME_END;
+        writeInt(frame, 1, total);
+        writeInt(frame, 5, checksum);
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            checkRunnable();
+            sender.sendFrame(frame);
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+                long remaining;
+                while (completeStatus < 0 && !cancelled && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+                if (completeStatus == 0) {
+                    return;
+                } else if (cancelled) {
+                    throw new CancelledException();
+                } else if (completeStatus > 0) {
+                    throw new IOException("Device reported checksum mismatch");
+                }
+            }
+        }
+        throw new IOException("Device did not confirm end of file transfer");
+    }
+
+    private Chunk dataChunk(long offset, byte[] data, int start, int count) {
+        byte[] frame = framePool.acquire(count + DATA_HEADER_SIZE);
+        frame[0] = FRAME_DATA;
+        writeInt(frame, 1, offset);
+        System.arraycopy(data, start, frame, DATA_HEADER_SIZE, count);
+        return new Chunk(offset, count, frame);
+    }
+
+    /**
+     * Reads the file block by block and cuts chunks from the block. With delta blocks
+     * the blocks are aligned and a block with the same crc32 as the device reported
+     * becomes one keep chunk.
+     *
+     * @return null at the end of file
+     */
+    private Chunk nextChunk(long offset, CRC32 crc) throws IOException {
+        if (deflater == null && !hasDeviceBlocks()) {
+            return readDataChunk(offset, crc);
+        }
+        if (blockPosition == blockLength) {
+            boolean delta = hasDeviceBlocks();
+            // the first block after resume may be partial, it is never kept
+            int size = delta ? deltaBlockSize - (int) (offset % deltaBlockSize) : block.length;
+            blockLength = Math.max(0, readChunk(block, 0, size));
+            blockPosition = 0;
+            if (blockLength == 0) {
+                return null;
+            }
+            crc.update(block, 0, blockLength);
+            long index = delta ? offset / deltaBlockSize : -1;
+            if (delta && size == deltaBlockSize && index < deviceBlocks.length && deviceBlockKnown[(int) index]) {
+                CRC32 blockCrc = new CRC32();
+                blockCrc.update(block, 0, blockLength);
+                if (blockCrc.getValue() == deviceBlocks[(int) index]) {
+                    blockPosition = blockLength;
+                    synchronized (this) {
+                        skippedBytes += blockLength;
+                    }
+                    byte[] frame = framePool.acquire(9);
+                    frame[0] = FRAME_KEEP;
+                    writeInt(frame, 1, offset);
+                    writeInt(frame, 5, blockLength);
+                    return new Chunk(offset, blockLength, frame);
+                }
+            }
+        }
+        Chunk chunk = null;
+        if (deflater != null && compressBypass == 0) {
+            chunk = compressedChunk(offset);
+            if (chunk == null) {
+                compressBypass = COMPRESS_BYPASS_CHUNKS;
+            }
+        } else if (compressBypass > 0) {
+            compressBypass--;
+        }
+        if (chunk == null) {
+            chunk = dataChunk(offset, block, blockPosition, Math.min(sizer.getSize(), blockLength - blockPosition));
+        }
+        blockPosition += chunk.length;
+        return chunk;
+    }
+
+    /**
+     * Reads the chunk straight into its frame, only the last chunk of the file is copied
+     * to a frame of its shorter length.
+     *
+     * @return null at the end of file
+     */
+    private Chunk readDataChunk(long offset, CRC32 crc) throws IOException {
+        int size = sizer.getSize();
+        byte[] frame = framePool.acquire(size + DATA_HEADER_SIZE);
+        int count = readChunk(frame, DATA_HEADER_SIZE, size);
+        if (count <= 0) {
+            framePool.release(frame);
+            return null;
+        }
+        crc.update(frame, DATA_HEADER_SIZE, count);
+        if (count < size) {
+            byte[] last = framePool.acquire(count + DATA_HEADER_SIZE);
+            System.arraycopy(frame, DATA_HEADER_SIZE, last, DATA_HEADER_SIZE, count);
+            framePool.release(frame);
+            frame = last;
+        }
+        frame[0] = FRAME_DATA;
+        writeInt(frame, 1, offset);
+        return new Chunk(offset, count, frame);
+    }
+
+    /**
+     * Deflates as much of the block as fits one frame. The input size is guessed from
+     * the ratio of the previous chunk and corrected when the output does not fit.
+     *
+     * @return null when the data does not get smaller
+     */
+    private Chunk compressedChunk(long offset) {
+        int budget = sizer.getSize() + DATA_HEADER_SIZE - COMPRESSED_HEADER_SIZE;
+        int available = Math.min(MAX_COMPRESSED_INPUT, blockLength - blockPosition);
+        int input = Math.min(available, compressInput);
+        for (int attempt = 0; attempt < COMPRESS_ATTEMPTS && input > 0; attempt++) {
+            deflater.reset();
+            deflater.setInput(block, blockPosition, input);
+            deflater.finish();
+            int count = 0;
+            while (!deflater.finished() && count < compressed.length) {
+                count += deflater.deflate(compressed, count, compressed.length - count);
+            }
+            if (count + COMPRESSED_HEADER_SIZE - DATA_HEADER_SIZE >= input) {
+                return null;
+            }
+            if (count <= budget) {
+                // next chunk tries to fill the frame with the same ratio
+                compressInput = Math.max(sizer.getSize(), (int) ((long) input * budget / Math.max(1, count)));
+                byte[] frame = framePool.acquire(count + COMPRESSED_HEADER_SIZE);
+                frame[0] = FRAME_COMPRESSED;
+                writeInt(frame, 1, offset);
+                frame[5] = (byte) (input >> 8);
+                frame[6] = (byte) input;
+                System.arraycopy(compressed, 0, frame, COMPRESSED_HEADER_SIZE, count);
+                return new Chunk(offset, input, frame);
+            }
+            input = (int) ((long) input * budget * 9 / 10 / count);
+        }
+        return null;
+    }
+
+    /**
+     * Asks the device for hashes of its blocks, without a complete answer every block is sent.
+     */
+    private void queryBlocks() throws XBeeException, InterruptedException, IOException {
+        byte[] frame = new byte[5];
+        frame[0] = FRAME_QUERY;
+        writeInt(frame, 1, deltaBlockSize);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            checkRunnable();
+            sender.sendFrame(frame);
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MS;
+                long remaining;
+                while (!hasDeviceBlocks() && !cancelled && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+                if (hasDeviceBlocks()) {
+                    return;
+                }
+            }
+        }
+        synchronized (this) {
+            deviceBlocks = null;
+        }
+    }
+
+    private synchronized boolean hasDeviceBlocks() {
+        return deviceBlocks != null && deviceBlocksReceived == deviceBlocks.length;
+    }
+
+    private synchronized void onHashes(byte[] data) {
+        if (deltaBlockSize <= 0) {
+            return;
+        }
+        int first = ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+        int total = ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        if (deviceBlocks == null || deviceBlocks.length != total) {
+            deviceBlocks = new long[total];
+            deviceBlockKnown = new boolean[total];
+            deviceBlocksReceived = 0;
+        }
+        for (int i = 5; i + 4 <= data.length && first < total; i += 4, first++) {
+            if (!deviceBlockKnown[first]) {
+                deviceBlockKnown[first] = true;
+                deviceBlocksReceived++;
+            }
+            deviceBlocks[first] = readInt(data, i);
+        }
+        notifyAll();
+    }
+
+    private void skip(long offset, CRC32 crc) throws IOException {
+        byte[] buffer = new byte[sizer.getMaxSize()];
+        long skipped = 0;
+        while (skipped < offset) {
+            int count = input.read(buffer, 0, (int) Math.min(buffer.length, offset - skipped));
+            if (count < 0) {
+                throw new IOException("Resume offset " + offset + " is beyond end of file");
+            }
+            crc.update(buffer, 0, count);
+            skipped += count;
+        }
+    }
+
+    private void send(Chunk chunk) throws XBeeException, InterruptedException {
+        chunk.sentAt = System.currentTimeMillis();
+        synchronized (this) {
+            wireBytes += chunk.frame.length;
+        }
+        sender.sendFrame(chunk.frame);
+    }
+
+    private synchronized void onAck(long offset) {
+        if (!started) {
+            started = true;
+            resumeOffset = Math.max(0, offset);
+            notifyAll();
+            return;
+        }
+        if (offset <= ackedOffset) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Long, Chunk>> it = inFlight.entrySet().iterator();
+        while (it.hasNext()) {
+            Chunk chunk = it.next().getValue();
+            if (chunk.offset + chunk.length > offset) {
+                break;
+            }
+            if (!chunk.retransmitted) {
+                long sample = now - chunk.sentAt;
+                srttMs = srttMs < 0 ? sample : srttMs * 0.875 + sample * 0.125;
+                sizer.onChunkDelivered();
+            }
+            ackedWireBytes += chunk.frame.length - DATA_HEADER_SIZE;
+            it.remove();
+            // a retransmit of the chunk may still be written, but the frame is taken again only after it
+            framePool.release(chunk.frame);
+        }
+        ackedOffset = offset;
+
+        long interval = now - rateTime;
+        if (interval >= RATE_INTERVAL_MS) {
+            // rate on the link, compressed and kept chunks carry more of the file
+            double sample = (double) (ackedWireBytes - rateWireBytes) / interval;
+            bytesPerMs = bytesPerMs <= 0 ? sample : bytesPerMs * 0.75 + sample * 0.25;
+            rateTime = now;
+            rateWireBytes = ackedWireBytes;
+        }
+        if (srttMs > 0 && bytesPerMs > 0) {
+            // Bandwidth-delay product in chunks plus one to probe for more throughput
+            int bdp = (int) Math.ceil(bytesPerMs * srttMs / sizer.getSize()) + 1;
+            window = Math.max(1, Math.min(maxWindow, bdp));
+        }
+        notifyAll();
+    }
+
+    private synchronized void onNack(long offset) {
+        if (inFlight.containsKey(offset)) {
+            sizer.onChunkLost();
+            missing.add(offset);
+            notifyAll();
+        }
+    }
+
+    private synchronized int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private synchronized int currentWindow() {
+        return window;
+    }
+
+    private long retransmitTimeout() {
+        if (srttMs < 0) {
+            return HANDSHAKE_TIMEOUT_MS;
+        }
+        return Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, (long) (srttMs * 2)));
+    }
+
+    private void publishProgress() {
+        if (progressListener != null) {
+            progressListener.onProgress(this);
+        }
+    }
+
+    private int readChunk(byte[] buffer, int offset, int size) throws IOException {
+        int total = 0;
+        while (total < size) {
+            int count = input.read(buffer, offset + total, size - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    static long readInt(byte[] data, int index) {
+        return ((data[index] & 0xFFL) << 24) | ((data[index + 1] & 0xFFL) << 16)
+            | ((data[index + 2] & 0xFFL) << 8) | (data[index + 3] & 0xFFL);
+    }
+
+    static void writeInt(byte[] data, int index, long value) {
+        data[index] = (byte) (value >> 24);
+        data[index + 1] = (byte) (value >> 16);
+        data[index + 2] = (byte) (value >> 8);
+        data[index + 3] = (byte) value;
+    }
+}
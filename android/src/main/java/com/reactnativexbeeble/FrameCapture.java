@@ -0,0 +1,267 @@
+package com.reactnativexbeeble;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary capture of relay frames passing between the phone and devices. Frames are
+ * copied into a ring buffer and written to the file by a background thread every
+ * flush interval, so recording never waits for the file. When the buffer is full
+ * frames are dropped and counted instead of blocking the sender.
+ *
+ * File format, all numbers big endian:
+ * <pre>
+ *   'X' 'B' 'C' 'P' version[1]
+ *   record: timeMicros[8] type[1] device[2] interface[1] length[2] data...
+ * </pre>
+ * Time is counted from the start of the capture. A record of type {@link #DEVICE}
+ * declares the address of device index as UTF-8 data before its first frame.
+ */
+class FrameCapture {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+    static final byte DEVICE = 0;
+    static final byte SENT_CONTROL = 1;
+    static final byte SENT_BULK = 2;
+    static final byte RECEIVED = 3;
+
+    private static final byte[] MAGIC = {'X', 'B', 'C', 'P'};
+    private static final int VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 14;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * One frame read back from a capture.
+     */
+    static class Frame {
+        final long timeMicros;
+        final byte type;
+        final String address;
+        final int iface;
+        final byte[] data;
+
+        Frame(long timeMicros, byte type, String address, int iface, byte[] data) {
+            this.timeMicros = timeMicros;
+            this.type = type;
+            this.address = address;
+            this.iface = iface;
+            this.data = data;
+        }
+
+        boolean isSent() {
+            return type == SENT_CONTROL || type == SENT_BULK;
+        }
+    }
+
+    private final File file;
+    private final OutputStream output;
+    private final byte[] ring;
+    private final byte[] flushBuffer;
+    private final byte[] header = new byte[RECORD_HEADER_SIZE];
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Integer> devices = new HashMap<String, Integer>();
+    private final ScheduledExecutorService flusher;
+    private final Object writeLock = new Object();
+    private int head;
+    private int used;
+    private long frames;
+    private long bytes;
+    private long dropped;
+    private boolean stopped;
+
+    FrameCapture(File file, int bufferSize, long flushIntervalMs) throws IOException {
+        this.file = file;
+        this.ring = new byte[Math.max(bufferSize, RECORD_HEADER_SIZE + ChunkSizer.MAX_RELAY_DATA_SIZE)];
+        this.flushBuffer = new byte[ring.length];
+        this.output = new FileOutputStream(file);
+        output.write(MAGIC);
+        output.write(VERSION);
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "XbeeFrameCapture");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    // frames stay counted, the file ends at the last complete flush
+                }
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    synchronized long getFrames() {
+        return frames;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Copies the frame into the buffer, returns at once.
+     */
+    synchronized void record(String address, byte type, int iface, byte[] data) {
+        if (stopped) {
+            return;
+        }
+        long timeMicros = (System.nanoTime() - startNanos) / 1000;
+        Integer device = devices.get(address);
+        if (device == null) {
+            byte[] name = address.getBytes(UTF_8);
+            if (!append(timeMicros, DEVICE, devices.size(), 0, name)) {
+                dropped++;
+                return;
+            }
+            device = devices.size();
+            devices.put(address, device);
+        }
+        if (!append(timeMicros, type, device, iface, data)) {
+            dropped++;
+            return;
+        }
+        frames++;
+        bytes += data.length;
+    }
+
+    /**
+     * Writes buffered frames and closes the file.
+     */
+    void stop() throws IOException {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+        }
+        flusher.shutdownNow();
+        try {
+            flush();
+        } finally {
+            synchronized (writeLock) {
+                output.close();
+            }
+        }
+    }
+
+    private boolean append(long timeMicros, byte type, int device, int iface, byte[] data) {
+        int length = RECORD_HEADER_SIZE + data.length;
+        if (ring.length - used < length) {
+            return false;
+        }
+        FileTransfer.writeInt(header, 0, timeMicros >>> 32);
+        FileTransfer.writeInt(header, 4, timeMicros);
+        header[8] = type;
+        header[9] = (byte) (device >> 8);
+        header[10] = (byte) device;
+        header[11] = (byte) iface;
+        header[12] = (byte) (data.length >> 8);
+        header[13] = (byte) data.length;
+        put(header);
+        put(data);
+        return true;
+    }
+
+    private void put(byte[] bytes) {
+        int position = (head + used) % ring.length;
+        int first = Math.min(bytes.length, ring.length - position);
+        System.arraycopy(bytes, 0, ring, position, first);
+        System.arraycopy(bytes, first, ring, 0, bytes.length - first);
+        used += bytes.length;
+    }
+
+    private void flush() throws IOException {
+        synchronized (writeLock) {
+            int count;
+            synchronized (this) {
+                count = used;
+                int first = Math.min(count, ring.length - head);
+                System.arraycopy(ring, head, flushBuffer, 0, first);
+                System.arraycopy(ring, 0, flushBuffer, first, count - first);
+                head = (head + count) % ring.length;
+                used = 0;
+            }
+            if (count > 0) {
+                output.write(flushBuffer, 0, count);
+                output.flush();
+            }
+        }
+    }
+
+    /**
+     * Reads all frames of a capture, device declarations are resolved to addresses.
+     */
+    static List<Frame> read(File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    static List<Frame> read(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC) || input.readUnsignedByte() != VERSION) {
+            throw new IOException("Not a frame capture");
+        }
+        Map<Integer, String> devices = new HashMap<Integer, String>();
+        List<Frame> frames = new ArrayList<Frame>();
+        while (true) {
+            long timeMicros;
+            try {
+                timeMicros = input.readLong();
+            } catch (EOFException e) {
+                return frames;
+            }
+            byte type = input.readByte();
+            int device = input.readUnsignedShort();
+            int iface = input.readUnsignedByte();
+            byte[] data = new byte[input.readUnsignedShort()];
+            input.readFully(data);
+            if (type == DEVICE) {
+                devices.put(device, new String(data, UTF_8));
+                continue;
+            }
+            String address = devices.get(device);
+            if (address == null) {
+                throw new IOException("Frame of undeclared device " + device);
+            }
+            frames.add(new Frame(timeMicros, type, address, iface, data));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.reactnativexbeeble;
+
+import java.util.ArrayDeque;
+
+/**
+ * Reusable frame arrays. Relay frames are at most {@link ChunkSizer#MAX_RELAY_DATA_SIZE}
+ * bytes long and a transfer or a stream of sends repeats the same few lengths, so arrays
+ * are kept per exact length and handed out again instead of allocating one per frame.
+ * An array may be released only when nobody reads it any more, {@link XbeeLink} does not
+ * keep the data after a send returns.
+ */
+class FramePool {
+    static final int DEFAULT_MAX_PER_LENGTH = 32;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<byte[]>[] free = new ArrayDeque[ChunkSizer.MAX_RELAY_DATA_SIZE + 1];
+    private final int maxPerLength;
+
+    FramePool(int maxPerLength) {
+        this.maxPerLength = maxPerLength;
+    }
+
+    /**
+     * @return array of exactly length bytes with undefined content
+     */
+    synchronized byte[] acquire(int length) {
+        ArrayDeque<byte[]> arrays = length < free.length ? free[length] : null;
+        byte[] array = arrays != null ? arrays.poll() : null;
+        return array != null ? array : new byte[length];
+    }
+
+    synchronized void release(byte[] array) {
+        if (array == null || array.length >= free.length) {
+            return;
+        }
+        ArrayDeque<byte[]> arrays = free[array.length];
+        if (arrays == null) {
+            arrays = new ArrayDeque<byte[]>(maxPerLength);
+            free[array.length] = arrays;
+        }
+        if (arrays.size() < maxPerLength) {
+            arrays.push(array);
+        }
+    }
+}
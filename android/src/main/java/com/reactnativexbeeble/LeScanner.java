@@ -0,0 +1,124 @@
+package com.reactnativexbeeble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scan backend based on {@link BluetoothLeScanner}. Filters are passed to the
+ * controller and with report delay results are batched by the controller.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+class LeScanner {
+    private final BluetoothLeScanner scanner;
+    private final DiscoveryCache cache;
+    private final ScanCallback callback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            onResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results) {
+                onResult(result);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.w(XbeeBleModule.LOG_TAG, "Scan failed with error " + errorCode);
+        }
+    };
+
+    LeScanner(BluetoothAdapter adapter, DiscoveryCache cache) {
+        this.scanner = adapter.getBluetoothLeScanner();
+        this.cache = cache;
+    }
+
+    boolean start(ReadableMap options) {
+        if (scanner == null) {
+            return false;
+        }
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+            .setScanMode(scanMode(options));
+        if (options != null && options.hasKey("reportDelay")) {
+            settings.setReportDelay(options.getInt("reportDelay"));
+        }
+        scanner.startScan(filters(options), settings.build(), callback);
+        return true;
+    }
+
+    void stop() {
+        if (scanner == null) {
+            return;
+        }
+        // deliver results still buffered by the controller before stopping
+        scanner.flushPendingScanResults(callback);
+        scanner.stopScan(callback);
+    }
+
+    private void onResult(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        String name = result.getDevice().getName();
+        if (name == null && record != null) {
+            name = record.getDeviceName();
+        }
+        boolean connectable = Build.VERSION.SDK_INT < Build.VERSION_CODES.O || result.isConnectable();
+        cache.onResult(result.getDevice().getAddress(), name, result.getRssi(),
+            record != null ? record.getBytes() : null, connectable);
+    }
+
+    private static int scanMode(ReadableMap options) {
+        if (options == null || !options.hasKey("scanMode")) {
+            return ScanSettings.SCAN_MODE_LOW_POWER;
+        }
+        String mode = options.getString("scanMode");
+        if ("lowLatency".equals(mode)) {
+            return ScanSettings.SCAN_MODE_LOW_LATENCY;
+        } else if ("balanced".equals(mode)) {
+            return ScanSettings.SCAN_MODE_BALANCED;
+        }
+        return ScanSettings.SCAN_MODE_LOW_POWER;
+    }
+
+    /**
+     * Hardware filters, a result has to match at least one of them. Name prefix and
+     * RSSI are not supported by the controller and are checked by {@link DiscoveryCache}.
+     */
+    private static List<ScanFilter> filters(ReadableMap options) {
+        List<ScanFilter> filters = new ArrayList<ScanFilter>();
+        if (options == null) {
+            return filters;
+        }
+        boolean manufacturer = options.hasKey("manufacturerId");
+        if (options.hasKey("deviceNames")) {
+            ReadableArray names = options.getArray("deviceNames");
+            for (int i = 0; i < names.size(); i++) {
+                ScanFilter.Builder filter = new ScanFilter.Builder().setDeviceName(names.getString(i));
+                if (manufacturer) {
+                    filter.setManufacturerData(options.getInt("manufacturerId"), new byte[0]);
+                }
+                filters.add(filter.build());
+            }
+        } else if (manufacturer) {
+            filters.add(new ScanFilter.Builder()
+                .setManufacturerData(options.getInt("manufacturerId"), new byte[0]).build());
+        }
+        return filters;
+    }
+}
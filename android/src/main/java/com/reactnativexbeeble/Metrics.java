@@ -0,0 +1,196 @@
+package com.reactnativexbeeble;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of link and bridge activity, kept globally and per device. Updates are
+ * lock free so they can be called from the send and receive paths.
+ */
+class Metrics {
+    /**
+     * Latency histogram with fixed bucket bounds in milliseconds, last bucket is open.
+     */
+    static class Histogram {
+        static final long[] BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            int index = 0;
+            while (index < BOUNDS_MS.length && micros > BOUNDS_MS[index] * 1000) {
+                index++;
+            }
+            buckets.incrementAndGet(index);
+            count.incrementAndGet();
+            sumMicros.addAndGet(micros);
+            long max;
+            while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            }
+        }
+
+        WritableMap toMap() {
+            WritableMap map = Arguments.createMap();
+            long samples = count.get();
+            map.putDouble("count", samples);
+            map.putDouble("averageMs", samples > 0 ? sumMicros.get() / 1000.0 / samples : 0);
+            map.putDouble("maxMs", maxMicros.get() / 1000.0);
+            WritableArray bounds = Arguments.createArray();
+            WritableArray counts = Arguments.createArray();
+            for (int i = 0; i < buckets.length(); i++) {
+                if (i < BOUNDS_MS.length) {
+                    bounds.pushDouble(BOUNDS_MS[i]);
+                }
+                counts.pushDouble(buckets.get(i));
+            }
+            map.putArray("boundsMs", bounds);
+            map.putArray("counts", counts);
+            return map;
+        }
+    }
+
+    static class Counters {
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong framesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+        final AtomicLong framesReceived = new AtomicLong();
+        final AtomicLong framesDropped = new AtomicLong();
+        final AtomicLong sendErrors = new AtomicLong();
+        final AtomicLong retransmits = new AtomicLong();
+        final AtomicLong connects = new AtomicLong();
+        final AtomicLong reconnects = new AtomicLong();
+        final AtomicLong lastConnectMs = new AtomicLong();
+        final Histogram sendLatency = new Histogram();
+        final Histogram connectTime = new Histogram();
+
+        WritableMap toMap() {
+            WritableMap map = Arguments.createMap();
+            map.putDouble("bytesSent", bytesSent.get());
+            map.putDouble("framesSent", framesSent.get());
+            map.putDouble("bytesReceived", bytesReceived.get());
+            map.putDouble("framesReceived", framesReceived.get());
+            map.putDouble("framesDropped", framesDropped.get());
+            map.putDouble("sendErrors", sendErrors.get());
+            map.putDouble("retransmits", retransmits.get());
+            map.putDouble("connects", connects.get());
+            map.putDouble("reconnects", reconnects.get());
+            map.putDouble("lastConnectMs", lastConnectMs.get());
+            map.putMap("sendLatency", sendLatency.toMap());
+            map.putMap("connectTime", connectTime.toMap());
+            return map;
+        }
+    }
+
+    private volatile Counters global = new Counters();
+    private final Map<String, Counters> devices = new ConcurrentHashMap<String, Counters>();
+    private final ConcurrentHashMap<String, AtomicLong> bridgeEvents = new ConcurrentHashMap<String, AtomicLong>();
+
+    Counters device(String address) {
+        Counters counters = devices.get(address);
+        if (counters == null) {
+            synchronized (devices) {
+                counters = devices.get(address);
+                if (counters == null) {
+                    counters = new Counters();
+                    devices.put(address, counters);
+                }
+            }
+        }
+        return counters;
+    }
+
+    void recordSend(String address, int bytes, long nanos) {
+        record(global, bytes, nanos);
+        record(device(address), bytes, nanos);
+    }
+
+    private static void record(Counters counters, int bytes, long nanos) {
+        counters.bytesSent.addAndGet(bytes);
+        counters.framesSent.incrementAndGet();
+        counters.sendLatency.record(nanos);
+    }
+
+    void recordSendError(String address) {
+        global.sendErrors.incrementAndGet();
+        device(address).sendErrors.incrementAndGet();
+    }
+
+    void recordReceive(String address, int bytes) {
+        global.bytesReceived.addAndGet(bytes);
+        global.framesReceived.incrementAndGet();
+        Counters counters = device(address);
+        counters.bytesReceived.addAndGet(bytes);
+        counters.framesReceived.incrementAndGet();
+    }
+
+    /**
+     * Received frame which was dropped by the receive queue before reaching JS.
+     */
+    void recordReceiveDropped(String address) {
+        global.framesDropped.incrementAndGet();
+        device(address).framesDropped.incrementAndGet();
+    }
+
+    void recordRetransmits(String address, long count) {
+        global.retransmits.addAndGet(count);
+        device(address).retransmits.addAndGet(count);
+    }
+
+    void recordConnect(String address, long nanos, boolean reconnect) {
+        for (Counters counters : new Counters[] {global, device(address)}) {
+            (reconnect ? counters.reconnects : counters.connects).incrementAndGet();
+            counters.lastConnectMs.set(nanos / 1000000);
+            counters.connectTime.record(nanos);
+        }
+    }
+
+    void recordBridgeEvent(String eventName) {
+        AtomicLong counter = bridgeEvents.get(eventName);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = bridgeEvents.putIfAbsent(eventName, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    WritableMap toMap(DeviceExecutor executor) {
+        WritableMap map = Arguments.createMap();
+        map.putMap("global", global.toMap());
+        WritableMap perDevice = Arguments.createMap();
+        for (Map.Entry<String, Counters> entry : devices.entrySet()) {
+            perDevice.putMap(entry.getKey(), deviceToMap(entry.getKey(), executor));
+        }
+        map.putMap("devices", perDevice);
+        WritableMap events = Arguments.createMap();
+        for (Map.Entry<String, AtomicLong> entry : bridgeEvents.entrySet()) {
+            events.putDouble(entry.getKey(), entry.getValue().get());
+        }
+        map.putMap("bridgeEvents", events);
+        return map;
+    }
+
+    WritableMap deviceToMap(String address, DeviceExecutor executor) {
+        WritableMap map = device(address).toMap();
+        map.putInt("queueDepth", executor.getQueueDepth(address));
+        return map;
+    }
+
+    void reset() {
+        global = new Counters();
+        devices.clear();
+        bridgeEvents.clear();
+    }
+}
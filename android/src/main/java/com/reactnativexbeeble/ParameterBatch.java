@@ -0,0 +1,174 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes AT parameters of one device in a single pipelined exchange. Commands
+ * are sent without waiting for the previous response, at most maxInFlight at once, and
+ * responses are matched by frame id. Values are set by queued commands (frame 0x09), so
+ * nothing changes on the device until one AC at the end, optionally followed by WR.
+ */
+class ParameterBatch implements XbeeLink.AtResponseListener {
+    static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    // AT command status of the XBee API
+    static final int STATUS_OK = 0;
+
+    static final String APPLY_CHANGES = "AC";
+    static final String WRITE = "WR";
+
+    /**
+     * One parameter of the batch, value null reads it.
+     */
+    static class Command {
+        final String parameter;
+        final byte[] value;
+        int status = -1;
+        byte[] response;
+        String error;
+
+        Command(String parameter, byte[] value) {
+            this.parameter = parameter;
+            this.value = value;
+        }
+
+        boolean isOk() {
+            return status == STATUS_OK;
+        }
+    }
+
+    interface Sender {
+        void send(int frameId, String command, byte[] value, boolean queued) throws XBeeException, InterruptedException;
+    }
+
+    private final List<Command> commands;
+    private final boolean apply;
+    private final boolean write;
+    private final int maxInFlight;
+    private final long timeoutMs;
+    private final Map<Integer, Command> pending = new HashMap<Integer, Command>();
+
+    /**
+     * @param apply send AC after the commands when a value was set
+     * @param write send WR after AC so the values survive reset
+     */
+    ParameterBatch(List<Command> commands, boolean apply, boolean write, int maxInFlight, long timeoutMs) {
+        this.commands = commands;
+        this.apply = apply;
+        this.write = write;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Sends all commands and waits for their responses. Changes are applied only when every
+     * command succeeded, failed commands have their status or error set.
+     *
+     * @param sender writes one AT command frame to the device
+     */
+    void run(XbeeLink link, Sender sender) throws XBeeException, InterruptedException, IOException {
+        link.setAtResponseListener(this);
+        try {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            boolean changed = false;
+            for (Command command : commands) {
+                send(link, sender, command, command.value != null, deadline);
+                changed |= command.value != null;
+            }
+            awaitAll(deadline);
+            if (!changed || !apply) {
+                return;
+            }
+            for (Command command : commands) {
+                if (!command.isOk()) {
+                    // queued values stay on the device until the next AC
+                    throw new IOException("Not applied, " + command.parameter + " failed");
+                }
+            }
+            runSingle(link, sender, APPLY_CHANGES, deadline);
+            if (write) {
+                runSingle(link, sender, WRITE, deadline);
+            }
+        } finally {
+            link.setAtResponseListener(null);
+        }
+    }
+
+    @Override
+    public void atResponseReceived(int frameId, String command, int status, byte[] value) {
+        synchronized (pending) {
+            Command matched = pending.get(frameId);
+            if (matched == null || !matched.parameter.equalsIgnoreCase(command)) {
+                return;
+            }
+            pending.remove(frameId);
+            matched.status = status;
+            matched.response = value;
+            pending.notifyAll();
+        }
+    }
+
+    private void runSingle(XbeeLink link, Sender sender, String parameter, long deadline)
+            throws XBeeException, InterruptedException, IOException {
+        Command command = new Command(parameter, null);
+        send(link, sender, command, false, deadline);
+        awaitAll(deadline);
+        if (!command.isOk()) {
+            throw new IOException(parameter + " failed" + (command.error != null ? ": " + command.error
+                : " with status " + command.status));
+        }
+    }
+
+    private void send(XbeeLink link, Sender sender, Command command, boolean queued, long deadline)
+            throws XBeeException, InterruptedException {
+        int frameId;
+        synchronized (pending) {
+            while (pending.size() >= maxInFlight) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    failPending("No response");
+                    break;
+                }
+                pending.wait(remaining);
+            }
+            do {
+                frameId = link.nextFrameId();
+            } while (pending.containsKey(frameId));
+            pending.put(frameId, command);
+        }
+        try {
+            sender.send(frameId, command.parameter, command.value, queued);
+        } catch (XBeeException e) {
+            synchronized (pending) {
+                pending.remove(frameId);
+            }
+            throw e;
+        }
+    }
+
+    private void awaitAll(long deadline) throws InterruptedException {
+        synchronized (pending) {
+            while (!pending.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    failPending("No response");
+                    return;
+                }
+                pending.wait(remaining);
+            }
+        }
+    }
+
+    private void failPending(String message) {
+        for (Command command : pending.values()) {
+            command.error = message;
+        }
+        pending.clear();
+    }
+}
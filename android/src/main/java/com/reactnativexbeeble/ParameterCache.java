@@ -0,0 +1,76 @@
+package com.reactnativexbeeble;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last known AT parameter values per device, so that reads of values which do not
+ * change on their own, e.g. firmware version or node identifier, do not go to the radio.
+ * Values which the device changes by itself are never cached. Values of a device are
+ * dropped when its connection ends.
+ */
+class ParameterCache {
+    // signal strength, temperature, network state and counters
+    private static final Set<String> VOLATILE = new HashSet<String>(Arrays.asList(
+        "AI", "DB", "TP", "%V", "MY", "OP", "OI", "CH", "NC", "EA", "EC", "ER", "GD", "TR"));
+
+    private static class Entry {
+        final byte[] value;
+        final long time;
+
+        Entry(byte[] value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Map<String, Entry>> devices =
+        new ConcurrentHashMap<String, Map<String, Entry>>();
+
+    static boolean isCacheable(String parameter) {
+        return !VOLATILE.contains(parameter.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param maxAgeMs value older than this is not returned, negative accepts any age
+     * @return cached value or null
+     */
+    byte[] get(String address, String parameter, long maxAgeMs) {
+        Map<String, Entry> values = devices.get(address);
+        Entry entry = values != null ? values.get(parameter.toUpperCase(Locale.ROOT)) : null;
+        if (entry == null || (maxAgeMs >= 0 && System.currentTimeMillis() - entry.time > maxAgeMs)) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    void put(String address, String parameter, byte[] value) {
+        if (!isCacheable(parameter)) {
+            return;
+        }
+        Map<String, Entry> values = devices.get(address);
+        if (values == null) {
+            Map<String, Entry> created = new ConcurrentHashMap<String, Entry>();
+            values = devices.putIfAbsent(address, created);
+            if (values == null) {
+                values = created;
+            }
+        }
+        values.put(parameter.toUpperCase(Locale.ROOT), new Entry(value.clone(), System.currentTimeMillis()));
+    }
+
+    void invalidate(String address, String parameter) {
+        Map<String, Entry> values = devices.get(address);
+        if (values != null) {
+            values.remove(parameter.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    void invalidate(String address) {
+        devices.remove(address);
+    }
+}
@@ -0,0 +1,116 @@
+package com.reactnativexbeeble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the source on its own thread into a bounded queue of blocks, so a slow
+ * source and a slow consumer do not throttle each other.
+ */
+class PrefetchInputStream extends InputStream {
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final int blockSize;
+    private final BlockingQueue<byte[]> blocks;
+    private final Thread producer;
+    private volatile IOException error;
+    private volatile boolean closed;
+    private byte[] current;
+    private int position;
+
+    PrefetchInputStream(InputStream source, int blockSize, int maxBlocks) {
+        this.source = source;
+        this.blockSize = blockSize;
+        this.blocks = new ArrayBlockingQueue<byte[]>(Math.max(1, maxBlocks));
+        this.producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        }, "XbeeFilePrefetch");
+        this.producer.start();
+    }
+
+    private void produce() {
+        try {
+            while (!closed) {
+                byte[] block = new byte[blockSize];
+                int count = 0;
+                int read;
+                while (count < blockSize && (read = source.read(block, count, blockSize - count)) != -1) {
+                    count += read;
+                }
+                if (count > 0) {
+                    blocks.put(count == blockSize ? block : Arrays.copyOf(block, count));
+                }
+                if (count < blockSize) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            blocks.put(END);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (current == END) {
+            return false;
+        }
+        if (current == null || position == current.length) {
+            try {
+                current = blocks.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            position = 0;
+            if (current == END) {
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        producer.interrupt();
+        blocks.clear();
+        source.close();
+    }
+}
@@ -0,0 +1,454 @@
+package com.reactnativexbeeble;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue between the reader threads of the devices and the JS bridge. Frames are
+ * added without locking and handed to the dispatcher by its own thread, so a slow JS
+ * thread does not hold up reading from the radio. When capacity frames are waiting the
+ * overflow policy decides: drop the oldest or the new frame, block the reader up to
+ * blockTimeout ms, or spill frames to a file which is drained once the queue is empty.
+ * The dispatcher writes and reads the spill file itself, the readers never touch it.
+ */
+class ReceiveQueue {
+    static final int DEFAULT_CAPACITY = 4096;
+    static final long DEFAULT_BLOCK_TIMEOUT_MS = 100;
+    static final long DEFAULT_MAX_SPILL_BYTES = 16 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // sequence[4] interface[1] address length[2] data length[4]
+    private static final int SPILL_HEADER = 11;
+    // bytes written to the spill file at once
+    private static final int MAX_SPILL_BATCH = 64 * 1024;
+    // frames the readers may queue for the dispatcher to spill while it is busy or descheduled
+    private static final int SPILL_STAGING = 4096;
+
+    enum Policy {
+        DROP_OLDEST("dropOldest"),
+        DROP_NEWEST("dropNewest"),
+        BLOCK("block"),
+        SPILL("spill");
+
+        private final String name;
+
+        Policy(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        static Policy fromName(String name) {
+            for (Policy policy : values()) {
+                if (policy.name.equals(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown overflow policy " + name);
+        }
+    }
+
+    interface Dispatcher {
+        /**
+         * Called on the dispatcher thread for every frame in the order of adding.
+         */
+        void dispatch(Frame frame);
+
+        /**
+         * Called for every frame which is dropped, on the thread which dropped it.
+         */
+        void dropped(Frame frame);
+    }
+
+    static class Frame {
+        final String address;
+        final int sequence;
+        final int sourceInterface;
+        final byte[] data;
+
+        Frame(String address, int sequence, int sourceInterface, byte[] data) {
+            this.address = address;
+            this.sequence = sequence;
+            this.sourceInterface = sourceInterface;
+            this.data = data;
+        }
+    }
+
+    private final Dispatcher dispatcher;
+    private final File spillFile;
+    private volatile boolean running = true;
+
+    private volatile Policy policy = Policy.DROP_OLDEST;
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile long blockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+    private volatile long maxSpillBytes = DEFAULT_MAX_SPILL_BYTES;
+
+    // frames added by the readers, size is reserved before a frame is offered
+    private final ConcurrentLinkedQueue<Frame> incoming = new ConcurrentLinkedQueue<Frame>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    // readers waiting for space with BLOCK
+    private final Object space = new Object();
+    private final AtomicInteger blocked = new AtomicInteger();
+
+    // with SPILL the dispatcher moves incoming frames to ready, or to the file while it holds
+    // older frames, and takes ready, then the file, in the order of adding
+    private final ConcurrentLinkedQueue<Frame> ready = new ConcurrentLinkedQueue<Frame>();
+    private final AtomicInteger readySize = new AtomicInteger();
+    // the file is used by the dispatcher only, the lock orders it with shutdown
+    private final Object fileLock = new Object();
+    private RandomAccessFile spill;
+    // records collected for the next write to the file
+    private ByteBuffer batch = ByteBuffer.allocate(MAX_SPILL_BATCH + SPILL_HEADER + ChunkSizer.MAX_RELAY_DATA_SIZE);
+    private final List<Frame> batchFrames = new ArrayList<Frame>();
+    private long spillWritten;
+    private long spillRead;
+    private final AtomicLong spillFrames = new AtomicLong();
+
+    private final Thread thread;
+    private volatile boolean idle;
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * @param spillFile file for the SPILL policy, created on first overflow
+     */
+    ReceiveQueue(Dispatcher dispatcher, File spillFile) {
+        this.dispatcher = dispatcher;
+        this.spillFile = spillFile;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "xbee-receive");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Applies to frames added from now on, frames already waiting are kept.
+     */
+    void configure(Policy policy, int capacity, long blockTimeoutMs, long maxSpillBytes) {
+        this.policy = policy;
+        this.capacity = Math.max(1, capacity);
+        this.blockTimeoutMs = Math.max(0, blockTimeoutMs);
+        this.maxSpillBytes = Math.max(0, maxSpillBytes);
+    }
+
+    Policy getPolicy() {
+        return policy;
+    }
+
+    void add(Frame frame) {
+        added.incrementAndGet();
+        Policy current = policy;
+        int limit = current == Policy.SPILL ? Math.max(capacity, SPILL_STAGING) : capacity;
+        while (!reserve(limit)) {
+            if (current == Policy.DROP_OLDEST) {
+                Frame oldest = incoming.poll();
+                if (oldest != null) {
+                    // the new frame takes the slot of the dropped one
+                    drop(oldest);
+                    break;
+                }
+            } else if (current == Policy.BLOCK) {
+                if (!awaitSpace()) {
+                    drop(frame);
+                    return;
+                }
+            } else {
+                // DROP_NEWEST, or SPILL when the dispatcher falls behind staging
+                drop(frame);
+                return;
+            }
+        }
+        incoming.offer(frame);
+        int depth = getDepth();
+        int max;
+        while (depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth)) {
+        }
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return true when a slot of incoming was taken
+     */
+    private boolean reserve(int limit) {
+        int current;
+        do {
+            current = size.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void drop(Frame frame) {
+        dropped.incrementAndGet();
+        dispatcher.dropped(frame);
+    }
+
+    private boolean awaitSpace() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        blocked.incrementAndGet();
+        try {
+            synchronized (space) {
+                while (size.get() >= capacity && running) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    space.wait(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                }
+            }
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blocked.decrementAndGet();
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return oldest incoming frame, its slot is released
+     */
+    private Frame pollIncoming() {
+        Frame frame = incoming.poll();
+        if (frame != null) {
+            size.decrementAndGet();
+            if (blocked.get() > 0) {
+                synchronized (space) {
+                    space.notifyAll();
+                }
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Moves incoming frames to ready, or to the file once it holds frames, in batches of
+     * MAX_SPILL_BATCH bytes.
+     */
+    private void moveIncoming() {
+        Frame frame;
+        while ((frame = pollIncoming()) != null) {
+            synchronized (fileLock) {
+                if (!running) {
+                    return;
+                }
+                do {
+                    if (batchFrames.isEmpty() && spillFrames.get() == 0 && readySize.get() < capacity) {
+                        ready.offer(frame);
+                        readySize.incrementAndGet();
+                    } else {
+                        appendSpill(frame);
+                    }
+                } while (batch.position() < MAX_SPILL_BATCH && (frame = pollIncoming()) != null);
+                writeSpill();
+            }
+            batchFrames.clear();
+        }
+    }
+
+    private void appendSpill(Frame frame) {
+        byte[] address = frame.address.getBytes(UTF_8);
+        int length = SPILL_HEADER + address.length + frame.data.length;
+        if (spillWritten - spillRead + batch.position() + length > maxSpillBytes) {
+            drop(frame);
+            return;
+        }
+        if (batch.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(batch.position() + length);
+            batch.flip();
+            larger.put(batch);
+            batch = larger;
+        }
+        batch.putInt(frame.sequence);
+        batch.put((byte) frame.sourceInterface);
+        batch.putShort((short) address.length);
+        batch.putInt(frame.data.length);
+        batch.put(address);
+        batch.put(frame.data);
+        batchFrames.add(frame);
+    }
+
+    /**
+     * Appends the batch to the spill file in one write, called with fileLock held.
+     */
+    private void writeSpill() {
+        if (batchFrames.isEmpty()) {
+            return;
+        }
+        int length = batch.position();
+        batch.clear();
+        try {
+            if (spill == null) {
+                spill = new RandomAccessFile(spillFile, "rw");
+                spill.setLength(0);
+            }
+            spill.seek(spillWritten);
+            spill.write(batch.array(), 0, length);
+        } catch (IOException e) {
+            for (Frame frame : batchFrames) {
+                drop(frame);
+            }
+            return;
+        }
+        spillWritten += length;
+        spillFrames.addAndGet(batchFrames.size());
+        spilled.addAndGet(batchFrames.size());
+    }
+
+    /**
+     * @return next spilled frame, null when the file holds none
+     */
+    private Frame readSpilled() {
+        synchronized (fileLock) {
+            if (spillFrames.get() == 0) {
+                return null;
+            }
+            try {
+                byte[] header = new byte[SPILL_HEADER];
+                spill.seek(spillRead);
+                spill.readFully(header);
+                ByteBuffer buffer = ByteBuffer.wrap(header);
+                int sequence = buffer.getInt();
+                int sourceInterface = buffer.get() & 0xFF;
+                byte[] address = new byte[buffer.getShort() & 0xFFFF];
+                byte[] data = new byte[buffer.getInt()];
+                spill.readFully(address);
+                spill.readFully(data);
+                spillRead += SPILL_HEADER + address.length + data.length;
+                if (spillFrames.decrementAndGet() == 0) {
+                    // drained, the file is written from its start again
+                    spillRead = 0;
+                    spillWritten = 0;
+                }
+                return new Frame(new String(address, UTF_8), sequence, sourceInterface, data);
+            } catch (IOException e) {
+                // the rest of the spill is lost
+                dropped.addAndGet(spillFrames.getAndSet(0));
+                spillRead = 0;
+                spillWritten = 0;
+                return null;
+            }
+        }
+    }
+
+    private Frame next() {
+        if (policy == Policy.SPILL) {
+            moveIncoming();
+        }
+        Frame frame = ready.poll();
+        if (frame != null) {
+            readySize.decrementAndGet();
+            return frame;
+        }
+        frame = readSpilled();
+        if (frame != null) {
+            return frame;
+        }
+        // with SPILL incoming frames were moved above to keep their order
+        return policy != Policy.SPILL ? pollIncoming() : null;
+    }
+
+    private void drain() {
+        while (running) {
+            Frame frame = next();
+            if (frame == null) {
+                idle = true;
+                if (incoming.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+            try {
+                dispatcher.dispatch(frame);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            dispatched.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return frames waiting in memory and in the spill file
+     */
+    int getDepth() {
+        return size.get() + readySize.get() + (int) spillFrames.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getDispatched() {
+        return dispatched.get();
+    }
+
+    int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    WritableMap toMap() {
+        WritableMap map = Arguments.createMap();
+        map.putString("overflow", policy.getName());
+        map.putInt("capacity", capacity);
+        map.putInt("depth", getDepth());
+        map.putInt("maxDepth", maxDepth.get());
+        map.putDouble("added", added.get());
+        map.putDouble("dispatched", dispatched.get());
+        map.putDouble("dropped", dropped.get());
+        map.putDouble("spilled", spilled.get());
+        map.putDouble("blockedMs", TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+        return map;
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        synchronized (space) {
+            space.notifyAll();
+        }
+        synchronized (fileLock) {
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+                spill = null;
+            }
+            spillFile.delete();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.reactnativexbeeble;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * How a dropped connection is opened again, exponential backoff between attempts.
+ */
+class ReconnectPolicy {
+    static final ReconnectPolicy DISABLED = new ReconnectPolicy(0, 0, 0);
+
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final long DEFAULT_INITIAL_DELAY_MS = 500;
+    static final long DEFAULT_MAX_DELAY_MS = 10000;
+
+    final int maxAttempts;
+    final long initialDelayMs;
+    final long maxDelayMs;
+
+    ReconnectPolicy(int maxAttempts, long initialDelayMs, long maxDelayMs) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    static ReconnectPolicy fromOptions(ReadableMap options) {
+        if (options == null || !options.hasKey("autoReconnect") || !options.getBoolean("autoReconnect")) {
+            return DISABLED;
+        }
+        return new ReconnectPolicy(
+            options.hasKey("maxReconnectAttempts") ? options.getInt("maxReconnectAttempts") : DEFAULT_MAX_ATTEMPTS,
+            options.hasKey("reconnectDelay") ? options.getInt("reconnectDelay") : DEFAULT_INITIAL_DELAY_MS,
+            options.hasKey("maxReconnectDelay") ? options.getInt("maxReconnectDelay") : DEFAULT_MAX_DELAY_MS);
+    }
+
+    boolean isEnabled() {
+        return maxAttempts > 0;
+    }
+
+    /**
+     * @param attempt attempt number starting from 0
+     */
+    long delayFor(int attempt) {
+        long delay = initialDelayMs << Math.min(attempt, 20);
+        return Math.min(delay, maxDelayMs);
+    }
+}
@@ -0,0 +1,50 @@
+package com.reactnativexbeeble;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Conversion of user data relay payloads between bridge values and bytes.
+ */
+final class RelayData {
+    private RelayData() {
+    }
+
+    /**
+     * Decodes array of numbers passed from JS, every number is one byte.
+     */
+    static byte[] fromArray(ReadableArray data) {
+        return fromArray(data, new byte[data.size()]);
+    }
+
+    static byte[] fromArray(ReadableArray data, FramePool pool) {
+        return fromArray(data, pool.acquire(data.size()));
+    }
+
+    private static byte[] fromArray(ReadableArray data, byte[] decoded) {
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = (byte) data.getInt(i);
+        }
+        return decoded;
+    }
+
+    static WritableArray toArray(byte[] data, WritableArray array) {
+        for (int i = 0; i < data.length; i++) {
+            array.pushInt(data[i]);
+        }
+        return array;
+    }
+
+    /**
+     * Puts data to map as Base64 string or as array of numbers.
+     */
+    static void put(WritableMap map, byte[] data, boolean base64) {
+        if (base64) {
+            map.putString("data", Base64Codec.encode(data));
+        } else {
+            map.putArray("data", toArray(data, Arguments.createArray()));
+        }
+    }
+}
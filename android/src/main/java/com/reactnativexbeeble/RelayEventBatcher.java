@@ -0,0 +1,103 @@
+package com.reactnativexbeeble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces received relay frames of each device and hands them over in batches,
+ * either when the interval since the first frame of the batch elapses or when the
+ * batch reaches its frame or byte limit.
+ */
+class RelayEventBatcher {
+    static final int DEFAULT_INTERVAL_MS = 50;
+    static final int DEFAULT_MAX_FRAMES = 64;
+    static final int DEFAULT_MAX_BYTES = 16384;
+
+    interface Emitter {
+        void emitBatch(String address, List<Frame> frames);
+    }
+
+    static class Frame {
+        final int sequence;
+        final int sourceInterface;
+        final byte[] data;
+
+        Frame(int sequence, int sourceInterface, byte[] data) {
+            this.sequence = sequence;
+            this.sourceInterface = sourceInterface;
+            this.data = data;
+        }
+    }
+
+    private static class Batch {
+        List<Frame> frames = new ArrayList<Frame>();
+        int bytes;
+    }
+
+    private final Emitter emitter;
+    private final long intervalMs;
+    private final int maxFrames;
+    private final int maxBytes;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+    RelayEventBatcher(Emitter emitter, long intervalMs, int maxFrames, int maxBytes) {
+        this.emitter = emitter;
+        this.intervalMs = intervalMs;
+        this.maxFrames = Math.max(1, maxFrames);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    void add(final String address, Frame frame) {
+        List<Frame> ready = null;
+        synchronized (this) {
+            Batch batch = batches.get(address);
+            if (batch == null) {
+                batch = new Batch();
+                batches.put(address, batch);
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(address);
+                    }
+                }, intervalMs, TimeUnit.MILLISECONDS);
+            }
+            batch.frames.add(frame);
+            batch.bytes += frame.data.length;
+            if (batch.frames.size() >= maxFrames || batch.bytes >= maxBytes) {
+                batches.remove(address);
+                ready = batch.frames;
+            }
+        }
+        if (ready != null) {
+            emitter.emitBatch(address, ready);
+        }
+    }
+
+    void flush(String address) {
+        Batch batch;
+        synchronized (this) {
+            batch = batches.remove(address);
+        }
+        if (batch != null && !batch.frames.isEmpty()) {
+            emitter.emitBatch(address, batch.frames);
+        }
+    }
+
+    void shutdown() {
+        List<String> addresses;
+        synchronized (this) {
+            addresses = new ArrayList<String>(batches.keySet());
+        }
+        for (String address : addresses) {
+            flush(address);
+        }
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,205 @@
+package com.reactnativexbeeble;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outstanding relay requests waiting for their reply. Any number of requests can be
+ * pending per device, a received frame completes the oldest request whose matcher
+ * accepts it. Requests not answered in time fail with a timeout.
+ */
+class RelayRequests {
+    static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    interface Reply {
+        void onReply(int sourceInterface, byte[] data);
+
+        void onError(String message);
+    }
+
+    /**
+     * Decides which received frame is the reply. Reply has to come from sourceInterface,
+     * start with prefix and carry the same id as the request: idLength bytes at idOffset
+     * of the request have to be equal to the bytes at replyIdOffset of the reply.
+     */
+    static class Matcher {
+        final int sourceInterface;
+        final byte[] prefix;
+        final byte[] id;
+        final int replyIdOffset;
+
+        Matcher(int sourceInterface, byte[] prefix, byte[] id, int replyIdOffset) {
+            this.sourceInterface = sourceInterface;
+            this.prefix = prefix;
+            this.id = id;
+            this.replyIdOffset = replyIdOffset;
+        }
+
+        static Matcher fromMap(ReadableMap options, int destInterface, byte[] request) {
+            int sourceInterface = options.hasKey("sourceInterface") ? options.getInt("sourceInterface") : destInterface;
+            byte[] prefix = options.hasKey("prefix") ? Base64Codec.decode(options.getString("prefix")) : new byte[0];
+            byte[] id = new byte[0];
+            int idOffset = 0;
+            if (options.hasKey("idLength")) {
+                idOffset = options.hasKey("idOffset") ? options.getInt("idOffset") : 0;
+                int idLength = options.getInt("idLength");
+                if (idOffset < 0 || idLength < 0 || idOffset + idLength > request.length) {
+                    throw new IllegalArgumentException("Request id is outside of the request data");
+                }
+                id = new byte[idLength];
+                System.arraycopy(request, idOffset, id, 0, idLength);
+            }
+            int replyIdOffset = options.hasKey("replyIdOffset") ? options.getInt("replyIdOffset") : idOffset;
+            return new Matcher(sourceInterface, prefix, id, replyIdOffset);
+        }
+
+        boolean matches(int sourceInterface, byte[] data) {
+            if (sourceInterface != this.sourceInterface || data.length < prefix.length
+                || data.length < replyIdOffset + id.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (data[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < id.length; i++) {
+                if (data[replyIdOffset + i] != id[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    class Pending {
+        final String address;
+        final Matcher matcher;
+        final Reply reply;
+        ScheduledFuture<?> timeout;
+
+        Pending(String address, Matcher matcher, Reply reply) {
+            this.address = address;
+            this.matcher = matcher;
+            this.reply = reply;
+        }
+
+        /**
+         * Fails the request unless it was already completed.
+         */
+        void fail(String message) {
+            if (remove(this)) {
+                reply.onError(message);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, List<Pending>> pending = new ConcurrentHashMap<String, List<Pending>>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Registers the request, has to be called before the request is sent so that
+     * an early reply is not missed.
+     */
+    Pending register(String address, Matcher matcher, long timeoutMs, Reply reply) {
+        final Pending request = new Pending(address, matcher, reply);
+        List<Pending> requests = pending.get(address);
+        if (requests == null) {
+            List<Pending> created = new LinkedList<Pending>();
+            requests = pending.putIfAbsent(address, created);
+            if (requests == null) {
+                requests = created;
+            }
+        }
+        synchronized (requests) {
+            requests.add(request);
+        }
+        request.timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                request.fail("Request timed out");
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        return request;
+    }
+
+    /**
+     * Completes the oldest matching request of the device.
+     *
+     * @return true when the frame was a reply and was consumed
+     */
+    boolean onFrame(String address, int sourceInterface, byte[] data) {
+        List<Pending> requests = pending.get(address);
+        if (requests == null) {
+            return false;
+        }
+        Pending matched = null;
+        synchronized (requests) {
+            Iterator<Pending> it = requests.iterator();
+            while (it.hasNext()) {
+                Pending request = it.next();
+                if (request.matcher.matches(sourceInterface, data)) {
+                    it.remove();
+                    matched = request;
+                    break;
+                }
+            }
+        }
+        if (matched == null) {
+            return false;
+        }
+        if (matched.timeout != null) {
+            matched.timeout.cancel(false);
+        }
+        matched.reply.onReply(sourceInterface, data);
+        return true;
+    }
+
+    /**
+     * Fails all requests of the device, used when its connection ends.
+     */
+    void failAll(String address, String message) {
+        List<Pending> requests = pending.get(address);
+        if (requests == null) {
+            return;
+        }
+        List<Pending> failed;
+        synchronized (requests) {
+            failed = new ArrayList<Pending>(requests);
+        }
+        for (Pending request : failed) {
+            request.fail(message);
+        }
+    }
+
+    void shutdown() {
+        for (String address : pending.keySet()) {
+            failAll(address, "Module destroyed");
+        }
+        scheduler.shutdownNow();
+    }
+
+    private boolean remove(Pending request) {
+        List<Pending> requests = pending.get(request.address);
+        if (requests == null) {
+            return false;
+        }
+        boolean removed;
+        synchronized (requests) {
+            removed = requests.remove(request);
+        }
+        if (removed && request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+        return removed;
+    }
+}
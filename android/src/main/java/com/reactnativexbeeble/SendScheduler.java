@@ -0,0 +1,111 @@
+package com.reactnativexbeeble;
+
+import java.util.ArrayDeque;
+
+/**
+ * Decides which sender writes the next frame to a device. Control frames go before
+ * bulk frames, but after a run of controlBurst control frames a waiting bulk frame
+ * is let through so that transfers are not starved. Senders of the same priority
+ * are served in order of arrival. With a byte rate set the link is never fed faster
+ * than that, short bursts are allowed.
+ *
+ * Senders call {@link #acquire} before writing the frame on their own thread and
+ * {@link #release} after it, so errors of the write stay with the caller.
+ */
+class SendScheduler {
+    enum Priority {
+        CONTROL,
+        BULK
+    }
+
+    static final int DEFAULT_CONTROL_BURST = 4;
+
+    private static final long BURST_MS = 100;
+    private static final long MIN_BUCKET_BYTES = 256;
+
+    private final ArrayDeque<Object> control = new ArrayDeque<Object>();
+    private final ArrayDeque<Object> bulk = new ArrayDeque<Object>();
+    private final int controlBurst;
+    private final long bytesPerSecond;
+    private final double bucketSize;
+    private double tokens;
+    private long refillTime;
+    private boolean busy;
+    private int controlRun;
+
+    /**
+     * @param bytesPerSecond limit of the link, 0 for no limit
+     */
+    SendScheduler(int controlBurst, long bytesPerSecond) {
+        this.controlBurst = Math.max(1, controlBurst);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.bucketSize = Math.max(MIN_BUCKET_BYTES, this.bytesPerSecond * BURST_MS / 1000);
+        this.tokens = bucketSize;
+        this.refillTime = System.nanoTime();
+    }
+
+    /**
+     * Blocks until it is the turn of the caller to write a frame of the given size.
+     */
+    synchronized void acquire(Priority priority, int bytes) throws InterruptedException {
+        ArrayDeque<Object> queue = priority == Priority.CONTROL ? control : bulk;
+        Object ticket = new Object();
+        queue.add(ticket);
+        try {
+            while (true) {
+                if (!busy && queue.peek() == ticket && isTurnOf(priority)) {
+                    long delay = tokenDelayMs();
+                    if (delay <= 0) {
+                        break;
+                    }
+                    // a control frame arriving meanwhile may take over the turn
+                    wait(delay);
+                } else {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            queue.remove(ticket);
+            notifyAll();
+            throw e;
+        }
+        queue.poll();
+        busy = true;
+        controlRun = priority == Priority.CONTROL ? controlRun + 1 : 0;
+        if (bytesPerSecond > 0) {
+            tokens -= bytes;
+        }
+    }
+
+    synchronized void release() {
+        busy = false;
+        notifyAll();
+    }
+
+    synchronized int getQueueDepth(Priority priority) {
+        return priority == Priority.CONTROL ? control.size() : bulk.size();
+    }
+
+    private boolean isTurnOf(Priority priority) {
+        if (priority == Priority.CONTROL) {
+            return bulk.isEmpty() || controlRun < controlBurst;
+        }
+        return control.isEmpty() || controlRun >= controlBurst;
+    }
+
+    /**
+     * @return ms until the bucket has tokens again, 0 when the frame can be sent now
+     */
+    private long tokenDelayMs() {
+        if (bytesPerSecond == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(bucketSize, tokens + (now - refillTime) * bytesPerSecond / 1e9);
+        refillTime = now;
+        if (tokens > 0) {
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil(-tokens * 1000 / bytesPerSecond));
+    }
+}
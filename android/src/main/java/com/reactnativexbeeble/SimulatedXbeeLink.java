@@ -0,0 +1,595 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.InterfaceNotOpenException;
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+import com.digi.xbee.api.models.UserDataRelayMessage;
+import com.digi.xbee.api.models.XBeeLocalInterface;
+import com.facebook.react.bridge.ReadableMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * {@link XbeeLink} without radio, frames are handed to an {@link Endpoint} running
+ * in process. The link models one way latency, airtime of ATT packets of the given
+ * MTU and random loss of frames in both directions. Transmit requests to remote nodes
+ * are answered with a transmit status after meshLatency, a frame lost in the network
+ * gets a failure status. AT commands read and set parameters of the simulated device,
+ * queued values take effect on AC.
+ */
+class SimulatedXbeeLink implements XbeeLink {
+    // start delimiter, length, frame type, frame id, interface and checksum of API frame 0x2D
+    private static final int API_FRAME_OVERHEAD = 7;
+    // the same plus 64-bit and 16-bit address, radius and options of API frame 0x10
+    private static final int TRANSMIT_FRAME_OVERHEAD = 18;
+    // network ACK failure, the remote node did not acknowledge the frame
+    static final int STATUS_NETWORK_ACK_FAILURE = 0x21;
+    private static final int MESH_RETRIES = 3;
+    // AT command status of an unknown parameter
+    static final int STATUS_INVALID_COMMAND = 2;
+    private static final int AT_FRAME_OVERHEAD = 8;
+    private static final int ATT_OVERHEAD = 3;
+
+    /**
+     * Device side of the simulated link.
+     */
+    interface Endpoint {
+        void onUserDataRelay(SimulatedXbeeLink link, XBeeLocalInterface sourceInterface, byte[] data);
+    }
+
+    static class Config {
+        long latencyMs;
+        int mtu = ChunkSizer.DEFAULT_MTU;
+        double loss;
+        // 0 means the link is never busy
+        int packetsPerSecond;
+        long meshLatencyMs;
+        long seed = 1;
+
+        static Config fromMap(ReadableMap options) {
+            Config config = new Config();
+            if (options.hasKey("latency")) {
+                config.latencyMs = options.getInt("latency");
+            }
+            if (options.hasKey("mtu")) {
+                config.mtu = options.getInt("mtu");
+            }
+            if (options.hasKey("loss")) {
+                config.loss = options.getDouble("loss");
+            }
+            if (options.hasKey("packetsPerSecond")) {
+                config.packetsPerSecond = options.getInt("packetsPerSecond");
+            }
+            if (options.hasKey("meshLatency")) {
+                config.meshLatencyMs = options.getInt("meshLatency");
+            }
+            if (options.hasKey("seed")) {
+                config.seed = options.getInt("seed");
+            }
+            return config;
+        }
+    }
+
+    private final Config config;
+    private final Endpoint endpoint;
+    private final Random random;
+    private final CopyOnWriteArrayList<IUserDataRelayReceiveListener> listeners =
+        new CopyOnWriteArrayList<IUserDataRelayReceiveListener>();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesLost = new AtomicLong();
+    private volatile ScheduledExecutorService scheduler;
+    private volatile TransmitStatusListener transmitStatusListener;
+    private volatile AtResponseListener atResponseListener;
+    private final Map<String, byte[]> parameters = new HashMap<String, byte[]>();
+    private final Map<String, byte[]> queuedParameters = new HashMap<String, byte[]>();
+    private final AtomicLong atCommands = new AtomicLong();
+    private long linkFreeAt;
+    private int frameId;
+
+    SimulatedXbeeLink(Config config, Endpoint endpoint) {
+        this.config = config;
+        this.endpoint = endpoint;
+        this.random = new Random(config.seed);
+        parameters.put("VR", new byte[]{0x30, 0x0B});
+        parameters.put("HV", new byte[]{0x42, 0x00});
+        parameters.put("NI", "SIMULATED".getBytes());
+        parameters.put("ID", new byte[]{0x7F, (byte) 0xFF});
+        parameters.put("DB", new byte[]{0x28});
+    }
+
+    /**
+     * Every created link talks to its own {@link FileSink}.
+     */
+    static Factory factory(final Config config) {
+        return new Factory() {
+            @Override
+            public XbeeLink create(String address, String password) {
+                return new SimulatedXbeeLink(config, new FileSink());
+            }
+        };
+    }
+
+    long getFramesSent() {
+        return framesSent.get();
+    }
+
+    long getFramesLost() {
+        return framesLost.get();
+    }
+
+    long getAtCommands() {
+        return atCommands.get();
+    }
+
+    @Override
+    public synchronized void open() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "XbeeSimulatedLink");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+            linkFreeAt = System.nanoTime();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void addUserDataRelayListener(IUserDataRelayReceiveListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeUserDataRelayListener(IUserDataRelayReceiveListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Blocks until the frame is written to the link, as a BLE write does.
+     */
+    @Override
+    public void sendUserDataRelay(XBeeLocalInterface destInterface, byte[] data) throws XBeeException {
+        long written = transmit(destInterface, data);
+        long remaining = written - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XBeeException("Interrupted while sending", e);
+            }
+        }
+    }
+
+    @Override
+    public void sendUserDataRelayAsync(XBeeLocalInterface destInterface, byte[] data) throws XBeeException {
+        sendUserDataRelay(destInterface, data);
+    }
+
+    @Override
+    public void setTransmitStatusListener(TransmitStatusListener listener) {
+        transmitStatusListener = listener;
+    }
+
+    @Override
+    public synchronized int nextFrameId() {
+        frameId = frameId % 255 + 1;
+        return frameId;
+    }
+
+    @Override
+    public void sendTransmitAsync(final int frameId, String destination, byte[] data, int radius, int options)
+            throws XBeeException {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            throw new InterfaceNotOpenException();
+        }
+        long now = System.nanoTime();
+        long written = occupy(now, data.length + TRANSMIT_FRAME_OVERHEAD);
+        framesSent.incrementAndGet();
+        if (isLost()) {
+            return;
+        }
+        final boolean delivered = !isLost();
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                TransmitStatusListener listener = transmitStatusListener;
+                if (listener != null) {
+                    listener.transmitStatusReceived(frameId,
+                        delivered ? TransmitRequests.STATUS_SUCCESS : STATUS_NETWORK_ACK_FAILURE,
+                        delivered ? 0 : MESH_RETRIES);
+                }
+            }
+        }, written - now + TimeUnit.MILLISECONDS.toNanos(2 * config.latencyMs + config.meshLatencyMs),
+            TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void setAtResponseListener(AtResponseListener listener) {
+        atResponseListener = listener;
+    }
+
+    @Override
+    public void sendAtCommandAsync(final int frameId, final String command, byte[] value, boolean queued)
+            throws XBeeException {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            throw new InterfaceNotOpenException();
+        }
+        long now = System.nanoTime();
+        long written = occupy(now, (value != null ? value.length : 0) + AT_FRAME_OVERHEAD);
+        framesSent.incrementAndGet();
+        atCommands.incrementAndGet();
+        if (isLost()) {
+            return;
+        }
+        final byte[] response;
+        final int status;
+        synchronized (parameters) {
+            String parameter = command.toUpperCase(Locale.ROOT);
+            if (value != null) {
+                (queued ? queuedParameters : parameters).put(parameter, value.clone());
+                response = new byte[0];
+                status = TransmitRequests.STATUS_SUCCESS;
+            } else if ("AC".equals(parameter)) {
+                parameters.putAll(queuedParameters);
+                queuedParameters.clear();
+                response = new byte[0];
+                status = TransmitRequests.STATUS_SUCCESS;
+            } else if ("WR".equals(parameter)) {
+                response = new byte[0];
+                status = TransmitRequests.STATUS_SUCCESS;
+            } else {
+                byte[] current = parameters.get(parameter);
+                response = current != null ? current.clone() : new byte[0];
+                status = current != null ? TransmitRequests.STATUS_SUCCESS : STATUS_INVALID_COMMAND;
+            }
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                AtResponseListener listener = atResponseListener;
+                if (listener != null) {
+                    listener.atResponseReceived(frameId, command, status, response);
+                }
+            }
+        }, written - now + TimeUnit.MILLISECONDS.toNanos(2 * config.latencyMs), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void requestConnectionPriority(int priority) {
+    }
+
+    /**
+     * Sends data from the device side to the phone.
+     */
+    void deliver(final XBeeLocalInterface sourceInterface, final byte[] data) {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null || isLost()) {
+            return;
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                UserDataRelayMessage message = new UserDataRelayMessage(sourceInterface, data);
+                for (IUserDataRelayReceiveListener listener : listeners) {
+                    listener.userDataRelayReceived(message);
+                }
+            }
+        }, config.latencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return time in nanos when the frame is completely written to the link
+     */
+    private long transmit(final XBeeLocalInterface destInterface, byte[] data) throws XBeeException {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            throw new InterfaceNotOpenException();
+        }
+        if (data.length > ChunkSizer.MAX_RELAY_DATA_SIZE) {
+            throw new XBeeException("User data relay frame is too long: " + data.length);
+        }
+        long now = System.nanoTime();
+        long written = occupy(now, data.length + API_FRAME_OVERHEAD);
+        framesSent.incrementAndGet();
+        if (isLost()) {
+            return written;
+        }
+        // the device may keep the array, the caller is free to reuse its buffer
+        final byte[] copy = data.clone();
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                endpoint.onUserDataRelay(SimulatedXbeeLink.this, destInterface, copy);
+            }
+        }, written - now + TimeUnit.MILLISECONDS.toNanos(config.latencyMs), TimeUnit.NANOSECONDS);
+        return written;
+    }
+
+    /**
+     * Reserves the link for an API frame of frameLength bytes.
+     *
+     * @return time in nanos when the frame is completely written to the link
+     */
+    private synchronized long occupy(long now, int frameLength) {
+        long start = Math.max(now, linkFreeAt);
+        linkFreeAt = start + airtime(frameLength);
+        return linkFreeAt;
+    }
+
+    private long airtime(int frameLength) {
+        if (config.packetsPerSecond <= 0) {
+            return 0;
+        }
+        int attPayload = Math.max(1, config.mtu - ATT_OVERHEAD);
+        int packets = (frameLength + attPayload - 1) / attPayload;
+        return packets * TimeUnit.SECONDS.toNanos(1) / config.packetsPerSecond;
+    }
+
+    private synchronized boolean isLost() {
+        if (config.loss > 0 && random.nextDouble() < config.loss) {
+            framesLost.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Device answering the acknowledged file transfer protocol of {@link FileTransfer}.
+     * Chunks received out of order are kept until the gap is filled. The last completed
+     * file is kept as the current image for delta transfers, compressed chunks are inflated.
+     * The image is sent back to the phone when it asks for a file by {@link FileReceiver#FRAME_GET}.
+     * Frames of unacknowledged transfers are counted, everything else is echoed back.
+     */
+    static class FileSink implements Endpoint {
+        private static final int MAX_PENDING_CHUNKS = 64;
+        private static final int HASHES_PER_FRAME = (ChunkSizer.MAX_RELAY_DATA_SIZE - 5) / 4;
+
+        private final CRC32 crc = new CRC32();
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private byte[] image = new byte[0];
+        private volatile FileTransfer serving;
+        private final TreeMap<Long, byte[]> pending = new TreeMap<Long, byte[]>();
+        private boolean started;
+        private long expected;
+        private long nacked = -1;
+        private long legacyBytes;
+        private int status = -1;
+        private int completed;
+
+        synchronized long getReceivedBytes() {
+            return started ? expected : legacyBytes;
+        }
+
+        synchronized int getCompleted() {
+            return completed;
+        }
+
+        synchronized byte[] getImage() {
+            return image.clone();
+        }
+
+        synchronized void setImage(byte[] image) {
+            this.image = image.clone();
+        }
+
+        @Override
+        public synchronized void onUserDataRelay(SimulatedXbeeLink link, XBeeLocalInterface sourceInterface,
+                                                 byte[] data) {
+            byte type = data.length > 0 ? data[0] : 0;
+            FileTransfer upload = serving;
+            if (upload != null && type == FileTransfer.FRAME_ABORT && data.length == 1) {
+                upload.cancel();
+            } else if (upload != null && upload.onFrameReceived(data)) {
+                return;
+            } else if (type == FileReceiver.FRAME_GET && data.length >= 7) {
+                if (upload == null) {
+                    serve(link, FileTransfer.readInt(data, 1), ((data[5] & 0xFF) << 8) | (data[6] & 0xFF));
+                }
+            } else if (type == FileTransfer.FRAME_START && data.length == 11) {
+                // resume is possible only from the offset received so far
+                if (FileTransfer.readInt(data, 7) != expected) {
+                    reset();
+                }
+                started = true;
+                pending.clear();
+                status = -1;
+                nacked = -1;
+                reply(link, FileTransfer.FRAME_ACK, expected);
+            } else if (type == FileTransfer.FRAME_QUERY && data.length == 5) {
+                sendHashes(link, (int) FileTransfer.readInt(data, 1));
+            } else if (isChunk(data) && started) {
+                long offset = FileTransfer.readInt(data, 1);
+                byte[] payload = offset == expected ? payload(data) : null;
+                if (offset == expected && payload == null) {
+                    reply(link, FileTransfer.FRAME_NACK, expected);
+                } else if (offset == expected) {
+                    append(payload);
+                    // chunks received out of order may continue right after this one
+                    Map.Entry<Long, byte[]> next;
+                    while ((next = pending.pollFirstEntry()) != null) {
+                        if (next.getKey() > expected) {
+                            pending.put(next.getKey(), next.getValue());
+                            break;
+                        } else if (next.getKey() == expected && (payload = payload(next.getValue())) != null) {
+                            append(payload);
+                        }
+                    }
+                    reply(link, FileTransfer.FRAME_ACK, expected);
+                } else if (offset > expected) {
+                    if (pending.size() < MAX_PENDING_CHUNKS) {
+                        pending.put(offset, data);
+                    }
+                    if (nacked != expected) {
+                        nacked = expected;
+                        reply(link, FileTransfer.FRAME_NACK, expected);
+                    }
+                } else {
+                    reply(link, FileTransfer.FRAME_ACK, expected);
+                }
+            } else if (type == FileTransfer.FRAME_ABORT && data.length == 1) {
+                started = false;
+                pending.clear();
+                reset();
+            } else if (type == FileTransfer.FRAME_DATA && !started) {
+                legacyBytes += Math.max(0, data.length - FileTransfer.LEGACY_HEADER_SIZE);
+            } else if (type == FileTransfer.FRAME_END && data.length == 9 && (started || status >= 0)) {
+                if (started) {
+                    boolean valid = FileTransfer.readInt(data, 1) == expected
+                        && FileTransfer.readInt(data, 5) == crc.getValue();
+                    status = valid ? 0 : 1;
+                    if (valid) {
+                        completed++;
+                        image = received.toByteArray();
+                    }
+                    started = false;
+                    pending.clear();
+                    reset();
+                }
+                // repeated end frame when the completion was lost
+                link.deliver(XBeeLocalInterface.SERIAL, new byte[]{FileTransfer.FRAME_COMPLETE, (byte) status});
+            } else {
+                link.deliver(sourceInterface, data);
+            }
+        }
+
+        private static boolean isChunk(byte[] data) {
+            return data.length > FileTransfer.DATA_HEADER_SIZE
+                && (data[0] == FileTransfer.FRAME_DATA
+                || data[0] == FileTransfer.FRAME_KEEP && data.length == 9
+                || data[0] == FileTransfer.FRAME_COMPRESSED && data.length > FileTransfer.COMPRESSED_HEADER_SIZE);
+        }
+
+        /**
+         * @return bytes of the file carried by the chunk, null when they can not be decoded
+         */
+        private byte[] payload(byte[] data) {
+            if (data[0] == FileTransfer.FRAME_KEEP) {
+                long offset = FileTransfer.readInt(data, 1);
+                long length = FileTransfer.readInt(data, 5);
+                return offset + length <= image.length
+                    ? Arrays.copyOfRange(image, (int) offset, (int) (offset + length)) : null;
+            }
+            if (data[0] == FileTransfer.FRAME_COMPRESSED) {
+                byte[] payload = new byte[((data[5] & 0xFF) << 8) | (data[6] & 0xFF)];
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(data, FileTransfer.COMPRESSED_HEADER_SIZE,
+                        data.length - FileTransfer.COMPRESSED_HEADER_SIZE);
+                    int count = inflater.inflate(payload);
+                    return count == payload.length && inflater.finished() ? payload : null;
+                } catch (DataFormatException e) {
+                    return null;
+                } finally {
+                    inflater.end();
+                }
+            }
+            return Arrays.copyOfRange(data, FileTransfer.DATA_HEADER_SIZE, data.length);
+        }
+
+        private void append(byte[] payload) {
+            crc.update(payload, 0, payload.length);
+            received.write(payload, 0, payload.length);
+            expected += payload.length;
+        }
+
+        /**
+         * Sends the image to the phone with the same transfer the phone uses, on its own thread.
+         */
+        private void serve(final SimulatedXbeeLink link, long offset, int chunkSize) {
+            ChunkSizer sizer = new ChunkSizer(link.config.mtu, FileTransfer.DATA_HEADER_SIZE, chunkSize, chunkSize);
+            final FileTransfer upload = new FileTransfer(new FileTransfer.FrameSender() {
+                @Override
+                public void sendFrame(byte[] frame) {
+                    link.deliver(XBeeLocalInterface.SERIAL, frame);
+                }
+            }, new ByteArrayInputStream(image), image.length, sizer, true, FileTransfer.DEFAULT_MAX_WINDOW, offset);
+            serving = upload;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        upload.run();
+                    } catch (Exception ignored) {
+                        // the phone gives up on its own
+                    } finally {
+                        serving = null;
+                    }
+                }
+            }, "XbeeSimulatedUpload");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void reset() {
+            crc.reset();
+            received.reset();
+            expected = 0;
+        }
+
+        /**
+         * Answers a query with crc32 of every block of the image.
+         */
+        private void sendHashes(SimulatedXbeeLink link, int blockSize) {
+            if (blockSize <= 0) {
+                return;
+            }
+            int total = (image.length + blockSize - 1) / blockSize;
+            int first = 0;
+            do {
+                int count = Math.min(HASHES_PER_FRAME, total - first);
+                byte[] frame = new byte[5 + count * 4];
+                frame[0] = FileTransfer.FRAME_HASHES;
+                frame[1] = (byte) (first >> 8);
+                frame[2] = (byte) first;
+                frame[3] = (byte) (total >> 8);
+                frame[4] = (byte) total;
+                for (int i = 0; i < count; i++) {
+                    int start = (first + i) * blockSize;
+                    CRC32 block = new CRC32();
+                    block.update(image, start, Math.min(blockSize, image.length - start));
+                    FileTransfer.writeInt(frame, 5 + i * 4, block.getValue());
+                }
+                link.deliver(XBeeLocalInterface.SERIAL, frame);
+                first += count;
+            } while (first < total);
+        }
+
+        private static void reply(SimulatedXbeeLink link, byte type, long offset) {
+            byte[] frame = new byte[5];
+            frame[0] = type;
+            FileTransfer.writeInt(frame, 1, offset);
+            link.deliver(XBeeLocalInterface.SERIAL, frame);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.reactnativexbeeble;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handle of a file transfer started from JS. One handle can control several
+ * transfers, e.g. all devices of a fan out, including transfers not started yet.
+ */
+class TransferControl {
+    final String id;
+    private final List<FileTransfer> transfers = new ArrayList<FileTransfer>();
+    private final List<FileReceiver> receivers = new ArrayList<FileReceiver>();
+    private boolean cancelled;
+    private boolean paused;
+
+    TransferControl(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Applies current state of the handle to transfer and controls it from now on.
+     */
+    synchronized void attach(FileTransfer transfer) {
+        transfers.add(transfer);
+        if (cancelled) {
+            transfer.cancel();
+        } else if (paused) {
+            transfer.pause();
+        }
+    }
+
+    synchronized void detach(FileTransfer transfer) {
+        transfers.remove(transfer);
+    }
+
+    /**
+     * Receives can only be cancelled, pause of the device is up to its firmware.
+     */
+    synchronized void attach(FileReceiver receiver) {
+        receivers.add(receiver);
+        if (cancelled) {
+            receiver.cancel();
+        }
+    }
+
+    synchronized void detach(FileReceiver receiver) {
+        receivers.remove(receiver);
+    }
+
+    /**
+     * @return true when transfer or receiver is attached to the handle
+     */
+    synchronized boolean controls(Object transfer) {
+        return transfers.contains(transfer) || receivers.contains(transfer);
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        for (FileTransfer transfer : transfers) {
+            transfer.cancel();
+        }
+        for (FileReceiver receiver : receivers) {
+            receiver.cancel();
+        }
+    }
+
+    synchronized void pause() {
+        paused = true;
+        for (FileTransfer transfer : transfers) {
+            transfer.pause();
+        }
+    }
+
+    synchronized void resume() {
+        paused = false;
+        for (FileTransfer transfer : transfers) {
+            transfer.resume();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.reactnativexbeeble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transmit requests sent through a device to remote nodes of its network, waiting for
+ * their transmit status. Statuses are matched to requests by frame id. The device has
+ * only a small transmit buffer, so at most maxInFlight requests are outstanding per
+ * device, senders wait for a free slot. Requests without status in time fail.
+ */
+class TransmitRequests {
+    static final long DEFAULT_TIMEOUT_MS = 10000;
+    static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    // transmit status of the XBee API, anything else means not delivered
+    static final int STATUS_SUCCESS = 0;
+
+    interface Status {
+        void onStatus(int status, int retries);
+
+        void onError(String message);
+    }
+
+    class Pending {
+        final String address;
+        final int frameId;
+        final Status status;
+        ScheduledFuture<?> timeout;
+
+        Pending(String address, int frameId, Status status) {
+            this.address = address;
+            this.frameId = frameId;
+            this.status = status;
+        }
+
+        /**
+         * Fails the request unless it was already completed.
+         */
+        void fail(String message) {
+            if (remove(this)) {
+                status.onError(message);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Map<Integer, Pending>> pending =
+        new ConcurrentHashMap<String, Map<Integer, Pending>>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final int maxInFlight;
+
+    TransmitRequests(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * @return listener to be set on the link of the device
+     */
+    XbeeLink.TransmitStatusListener listenerFor(final String address) {
+        return new XbeeLink.TransmitStatusListener() {
+            @Override
+            public void transmitStatusReceived(int frameId, int status, int retries) {
+                onStatus(address, frameId, status, retries);
+            }
+        };
+    }
+
+    /**
+     * Registers the request before it is sent, blocks while the device has maxInFlight
+     * requests outstanding.
+     *
+     * @return null when frameId is used by an outstanding request
+     */
+    Pending register(String address, int frameId, long timeoutMs, Status status) throws InterruptedException {
+        Map<Integer, Pending> requests = requestsOf(address);
+        final Pending request = new Pending(address, frameId, status);
+        synchronized (requests) {
+            while (requests.size() >= maxInFlight) {
+                requests.wait();
+            }
+            if (requests.containsKey(frameId)) {
+                return null;
+            }
+            requests.put(frameId, request);
+        }
+        request.timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                request.fail("No transmit status received");
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        return request;
+    }
+
+    /**
+     * Removes the request without completing it, used when it was not sent.
+     */
+    void cancel(Pending request) {
+        remove(request);
+    }
+
+    int inFlight(String address) {
+        Map<Integer, Pending> requests = pending.get(address);
+        if (requests == null) {
+            return 0;
+        }
+        synchronized (requests) {
+            return requests.size();
+        }
+    }
+
+    /**
+     * @return true when the status belonged to an outstanding request
+     */
+    boolean onStatus(String address, int frameId, int status, int retries) {
+        Map<Integer, Pending> requests = pending.get(address);
+        if (requests == null) {
+            return false;
+        }
+        Pending matched;
+        synchronized (requests) {
+            matched = requests.remove(frameId);
+            if (matched != null) {
+                requests.notifyAll();
+            }
+        }
+        if (matched == null) {
+            return false;
+        }
+        if (matched.timeout != null) {
+            matched.timeout.cancel(false);
+        }
+        matched.status.onStatus(status, retries);
+        return true;
+    }
+
+    /**
+     * Fails all requests of the device, used when its connection ends.
+     */
+    void failAll(String address, String message) {
+        Map<Integer, Pending> requests = pending.get(address);
+        if (requests == null) {
+            return;
+        }
+        List<Pending> failed;
+        synchronized (requests) {
+            failed = new ArrayList<Pending>(requests.values());
+        }
+        for (Pending request : failed) {
+            request.fail(message);
+        }
+    }
+
+    void shutdown() {
+        for (String address : pending.keySet()) {
+            failAll(address, "Module destroyed");
+        }
+        scheduler.shutdownNow();
+    }
+
+    private Map<Integer, Pending> requestsOf(String address) {
+        Map<Integer, Pending> requests = pending.get(address);
+        if (requests == null) {
+            Map<Integer, Pending> created = new HashMap<Integer, Pending>();
+            requests = pending.putIfAbsent(address, created);
+            if (requests == null) {
+                requests = created;
+            }
+        }
+        return requests;
+    }
+
+    private boolean remove(Pending request) {
+        Map<Integer, Pending> requests = pending.get(request.address);
+        if (requests == null) {
+            return false;
+        }
+        boolean removed;
+        synchronized (requests) {
+            removed = requests.get(request.frameId) == request;
+            if (removed) {
+                requests.remove(request.frameId);
+                requests.notifyAll();
+            }
+        }
+        if (removed && request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+        return removed;
+    }
+}
@@ -10,6 +10,7 @@ import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.module.annotations.ReactModule;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
@@ -25,11 +26,10 @@ import android.os.Build;
 import android.util.Base64;
 import org.json.JSONException;
 
-import com.digi.xbee.api.android.XBeeBLEDevice;
 import com.digi.xbee.api.exceptions.BluetoothAuthenticationException;
 import com.digi.xbee.api.exceptions.XBeeException;
 import com.digi.xbee.api.packet.XBeePacket;
-import com.digi.xbee.api.packet.relay.UserDataRelayPacket;
+import com.digi.xbee.api.models.XBee64BitAddress;
 import com.digi.xbee.api.models.XBeeLocalInterface;
 import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
 import com.digi.xbee.api.models.UserDataRelayMessage;
@@ -43,6 +43,12 @@ import java.io.InputStream;
 import java.io.BufferedInputStream;
 import java.io.OutputStream;
 import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.File;
+import java.util.zip.CRC32;
 
 import androidx.annotation.Nullable;
 
@@ -50,30 +56,67 @@ import static android.os.Build.VERSION_CODES.LOLLIPOP;
 import static com.facebook.react.bridge.UiThreadUtil.runOnUiThread;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ReactModule(name = XbeeBleModule.NAME)
 public class XbeeBleModule extends ReactContextBaseJavaModule {
     public static final String NAME = "XbeeBle";
     public static final String LOG_TAG = "ReactNativeBleManager";
     private static final int ENABLE_REQUEST = 539;
+    static final String REPLAY_PREFIX = "replay:";
 
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothManager bluetoothManager;
     private BleScanCallback scanCallback;
+    private volatile DiscoveryCache discoveryCache;
+    private LeScanner leScanner;
     private Context context;
     private ReactApplicationContext reactContext;
     private boolean forceLegacy;
     private Callback enableBluetoothCallback;
 
-    private Map<String, XBeeBLEDevice> connectedXbeeDevices;
-    private Map<String, UserDataRelayListener> relayDevicesListener;
+    private final XbeeSession session;
+    private DeviceRegistry registry;
+    private ConcurrentHashMap<String, FileTransfer> activeTransfers;
+    private ConcurrentHashMap<String, FileReceiver> activeReceives;
+    private Map<String, Long> transferCheckpoints;
+    private ConcurrentHashMap<String, TransferControl> transferControls;
+    private FileSource fileSource;
+    private volatile boolean receiveBase64;
+    private volatile RelayEventBatcher receiveBatcher;
+    private DeviceExecutor deviceExecutor;
+    private ExecutorService transferExecutor;
+    private Metrics metrics;
+    private RelayRequests relayRequests;
+    private TransmitRequests transmitRequests;
+    private ParameterCache parameterCache;
+    private ScheduledExecutorService metricsScheduler;
+    private FramePool relayPool;
 
     public XbeeBleModule(ReactApplicationContext reactContext) {
         super(reactContext);
         context = reactContext;
         this.reactContext = reactContext;
-        connectedXbeeDevices = new HashMap<String, XBeeBLEDevice>();
-        relayDevicesListener = new HashMap<String, UserDataRelayListener>();
+        // connections and transfers outlive the module while background mode is on
+        session = XbeeSession.attach(this, reactContext);
+        registry = session.registry;
+        activeTransfers = session.activeTransfers;
+        activeReceives = session.activeReceives;
+        transferCheckpoints = session.transferCheckpoints;
+        transferControls = session.transferControls;
+        fileSource = session.fileSource;
+        deviceExecutor = session.deviceExecutor;
+        transferExecutor = session.transferExecutor;
+        metrics = session.metrics;
+        relayRequests = session.relayRequests;
+        transmitRequests = session.transmitRequests;
+        parameterCache = session.parameterCache;
+        relayPool = session.relayPool;
     }
 
     @Override
@@ -82,6 +125,20 @@ public class XbeeBleModule extends ReactContextBaseJavaModule {
         return NAME;
     }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        if (metricsScheduler != null) {
+            metricsScheduler.shutdownNow();
+        }
+        RelayEventBatcher batcher = receiveBatcher;
+        receiveBatcher = null;
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        XbeeSession.detach(this);
+    }
+
     private BluetoothAdapter getBluetoothAdapter() {
         if (bluetoothAdapter == null) {
             BluetoothManager manager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
@@ -97,16 +154,25 @@ public class XbeeBleModule extends ReactContextBaseJavaModule {
         return bluetoothManager;
     }
 
+    /**
+     * Sends event to JS of the module currently attached to the session, transfers started
+     * before a JS reload report to the new runtime.
+     */
     public void sendEvent(String eventName, @Nullable WritableMap params) {
+        session.emit(eventName, params);
+    }
+
+    void emit(String eventName, @Nullable WritableMap params) {
         getReactApplicationContext().getJSModule(RCTNativeAppEventEmitter.class).emit(eventName, params);
     }
 
     public void sendEvent(String eventName, String name) {
+            metrics.recordBridgeEvent(eventName);
             getReactApplicationContext().getJSModule(RCTNativeAppEventEmitter.class).emit(eventName, name);
         }
 
     @ReactMethod
-    public void scan(Callback callback) {
+    public void scan(ReadableMap options, Callback callback) {
         Log.d(LOG_TAG, "scan");
         if (getBluetoothAdapter() == null) {
             Log.d(LOG_TAG, "No bluetooth support");
@@ -119,6 +185,25 @@ public class XbeeBleModule extends ReactContextBaseJavaModule {
         }
 
         Log.d(LOG_TAG, "Ok starting scan");
+        if (leScanner != null) {
+            leScanner.stop();
+            leScanner = null;
+        }
+        DiscoveryCache previous = discoveryCache;
+        if (previous != null) {
+            previous.stop();
+        }
+        DiscoveryCache cache = new DiscoveryCache(DiscoveryCache.Options.fromMap(options), new DiscoveryEmitter());
+        cache.start();
+        discoveryCache = cache;
+        if (!forceLegacy && Build.VERSION.SDK_INT >= LOLLIPOP) {
+            LeScanner scanner = new LeScanner(getBluetoothAdapter(), cache);
+            if (scanner.start(options)) {
+                leScanner = scanner;
+                callback.invoke();
+                return;
+            }
+        }
         getBluetoothAdapter().startLeScan(scanCallback);
         callback.invoke();
     }
@@ -135,7 +220,17 @@ public class XbeeBleModule extends ReactContextBaseJavaModule {
             callback.invoke();
             return;
         }
-        getBluetoothAdapter().stopLeScan(scanCallback);
+        if (leScanner != null) {
+            leScanner.stop();
+            leScanner = null;
+        } else {
+            getBluetoothAdapter().stopLeScan(scanCallback);
+        }
+        DiscoveryCache cache = discoveryCache;
+        discoveryCache = null;
+        if (cache != null) {
+            cache.stop();
+        }
         sendEvent("BleManagerStopScan", Arguments.createMap());
         callback.invoke();
     }
@@ -152,6 +247,9 @@ public class XbeeBleModule extends ReactContextBaseJavaModule {
         if (options.hasKey("forceLegacy")) {
             forceLegacy = options.getBoolean("forceLegacy");
         }
+        if (options.hasKey("fileCacheSize")) {
+            fileSource.setMaxCacheBytes((long) options.getDouble("fileCacheSize"));
+        }
 
         scanCallback = new BleScanCallback();
 
@@ -178,248 +276,1792 @@ public class XbeeBleModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void requestConnectionPriority(String address, int priority) {
-        XBeeBLEDevice xbeeDevice = connectedXbeeDevices.get(address);
-        if (xbeeDevice != null) {
-          xbeeDevice.requestConnectionPriority(priority);
-        }
+    public void requestConnectionPriority(final String address, final int priority) {
+        deviceExecutor.execute(address, new Runnable() {
+            @Override
+            public void run() {
+                DeviceConnection connection = registry.get(address);
+                XbeeLink xbeeDevice = registry.getConnectedDevice(address);
+                if (xbeeDevice != null) {
+                  xbeeDevice.requestConnectionPriority(priority);
+                  // link throughput changes with priority, let chunk size be discovered again
+                  connection.setChunkSize(0);
+                }
+            }
+        });
     }
 
     @ReactMethod
-    public void connectToDevice(final String address, final String password, Callback callback) {
-      new Thread(new Runnable() {
+    public void connectToDevice(final String address, final String password, ReadableMap options, final Callback callback) {
+      XbeeLink.Factory linkFactory = options != null && options.hasKey("simulate")
+        ? SimulatedXbeeLink.factory(SimulatedXbeeLink.Config.fromMap(options.getMap("simulate")))
+        : BleXbeeLink.factory(context.getApplicationContext());
+      SendScheduler sendScheduler = new SendScheduler(
+        options != null && options.hasKey("controlBurst") ? options.getInt("controlBurst") : SendScheduler.DEFAULT_CONTROL_BURST,
+        options != null && options.hasKey("maxBytesPerSecond") ? options.getInt("maxBytesPerSecond") : 0);
+      final DeviceConnection connection = registry.beginConnect(address, password,
+        ReconnectPolicy.fromOptions(options), linkFactory, sendScheduler);
+      if (connection == null) {
+        callback.invoke("Device is already connected");
+        return;
+      }
+      deviceExecutor.execute(address, new Runnable() {
         @Override
         public void run() {
-          XBeeBLEDevice xbeeDevice = new XBeeBLEDevice(context, address, password);
+          XbeeLink xbeeDevice = connection.linkFactory.create(address, password);
           try {
             Log.d(LOG_TAG, "Connecting");
+            long connectStart = System.nanoTime();
             xbeeDevice.open();
-            connectedXbeeDevices.put(address, xbeeDevice);
+            metrics.recordConnect(address, System.nanoTime() - connectStart, false);
             UserDataRelayListener relayListener = new UserDataRelayListener(address);
-            relayDevicesListener.put(address, relayListener);
             xbeeDevice.addUserDataRelayListener(relayListener);
+            xbeeDevice.setTransmitStatusListener(transmitRequests.listenerFor(address));
+            connection.attach(xbeeDevice, relayListener);
+            if (!registry.transition(connection, ConnectionState.CONNECTED, ConnectionState.CONNECTING)) {
+              // closed by session shutdown meanwhile
+              xbeeDevice.removeUserDataRelayListener(relayListener);
+              xbeeDevice.setTransmitStatusListener(null);
+              xbeeDevice.close();
+              callback.invoke("Connection closed");
+              return;
+            }
             callback.invoke();
 
             Log.d(LOG_TAG, "Connected");
           } catch (BluetoothAuthenticationException e) {
             e.printStackTrace();
             Log.d(LOG_TAG, "Failed to connect device check password");
+            registry.transition(connection, ConnectionState.FAILED, ConnectionState.CONNECTING);
             callback.invoke("Failed to connect device check password");
           } catch (XBeeException e) {
             e.printStackTrace();
             Log.d(LOG_TAG, "Failed to connect device");
+            registry.transition(connection, ConnectionState.FAILED, ConnectionState.CONNECTING);
             callback.invoke("Failed to connect device");
           }
         }
-      }).start();
+      });
     }
 
     @ReactMethod
-    public void disconnect(String address, Callback callback) {
+    public void disconnect(final String address, final Callback callback) {
         Log.d(LOG_TAG, "Disconnect from: " + address);
-
-        XBeeBLEDevice xbeeDevice = connectedXbeeDevices.get(address);
-        if (xbeeDevice != null) {
-            xbeeDevice.close();
-            UserDataRelayListener relayListener = relayDevicesListener.get(address);
-            xbeeDevice.removeUserDataRelayListener(relayListener);
-            callback.invoke();
-        } else
+        final DeviceConnection connection = registry.get(address);
+        if (connection == null) {
             callback.invoke("Peripheral not found");
+            return;
+        }
+        // queued behind a connect in progress, state is checked once it is finished
+        deviceExecutor.execute(address, new Runnable() {
+            @Override
+            public void run() {
+                if (!registry.transition(connection, ConnectionState.DISCONNECTING,
+                        ConnectionState.CONNECTED, ConnectionState.RECONNECTING)) {
+                    callback.invoke("Peripheral not found");
+                    return;
+                }
+                XbeeLink xbeeDevice = connection.getDevice();
+                xbeeDevice.removeUserDataRelayListener(connection.getRelayListener());
+                xbeeDevice.close();
+                registry.transition(connection, ConnectionState.CLOSED, ConnectionState.DISCONNECTING);
+                callback.invoke();
+            }
+        });
+    }
+
+    /**
+     * Opens the connection again after a failed send when the device has auto reconnect enabled.
+     * Called from the thread of the failed operation, which waits until reconnect finishes.
+     *
+     * @param failed device on which the operation failed
+     * @return true when the connection is usable again
+     */
+    private boolean reconnect(DeviceConnection connection, XbeeLink failed) {
+        if (connection == null || !connection.reconnectPolicy.isEnabled()) {
+            return false;
+        }
+        synchronized (connection.reconnectLock) {
+            // another operation could have already reconnected while this one was waiting
+            if (connection.getDevice() != failed) {
+                return connection.getState() == ConnectionState.CONNECTED;
+            }
+            if (!registry.transition(connection, ConnectionState.RECONNECTING, ConnectionState.CONNECTED)) {
+                return false;
+            }
+            failed.removeUserDataRelayListener(connection.getRelayListener());
+            failed.close();
+            ReconnectPolicy policy = connection.reconnectPolicy;
+            for (int attempt = 0; attempt < policy.maxAttempts; attempt++) {
+                try {
+                    Thread.sleep(policy.delayFor(attempt));
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (connection.getState() != ConnectionState.RECONNECTING) {
+                    return false;
+                }
+                Log.d(LOG_TAG, "Reconnecting " + connection.address + " attempt " + (attempt + 1));
+                XbeeLink xbeeDevice = connection.linkFactory.create(connection.address, connection.password);
+                try {
+                    long connectStart = System.nanoTime();
+                    xbeeDevice.open();
+                    metrics.recordConnect(connection.address, System.nanoTime() - connectStart, true);
+                } catch (XBeeException e) {
+                    Log.d(LOG_TAG, "Reconnect failed: " + e.getMessage());
+                    continue;
+                }
+                xbeeDevice.addUserDataRelayListener(connection.getRelayListener());
+                xbeeDevice.setTransmitStatusListener(transmitRequests.listenerFor(connection.address));
+                if (!connection.replaceDevice(xbeeDevice)) {
+                    xbeeDevice.removeUserDataRelayListener(connection.getRelayListener());
+                    xbeeDevice.close();
+                    return false;
+                }
+                if (!registry.transition(connection, ConnectionState.CONNECTED, ConnectionState.RECONNECTING)) {
+                    // closed by session shutdown meanwhile
+                    xbeeDevice.removeUserDataRelayListener(connection.getRelayListener());
+                    xbeeDevice.setTransmitStatusListener(null);
+                    xbeeDevice.close();
+                    return false;
+                }
+                return true;
+            }
+            registry.transition(connection, ConnectionState.FAILED, ConnectionState.RECONNECTING);
+            return false;
+        }
     }
 
     @ReactMethod
-    public void sendUserDataRelay(String address, int destInterface, ReadableArray data, Callback callback) throws XBeeException {
-      if(!checkIfConnected(address)) {
-        callback.invoke("Device is not connected");
-        return;
+    public void getConnectionState(String address, Callback callback) {
+        DeviceConnection connection = registry.get(address);
+        callback.invoke(null, connection != null ? connection.getState().getName() : ConnectionState.CLOSED.getName());
+    }
+
+    @ReactMethod
+    public void sendUserDataRelay(String address, int destInterface, ReadableArray data, Callback callback) {
+      sendRelayFrames(address, destInterface, Collections.singletonList(RelayData.fromArray(data, relayPool)), callback,
+        false, relayPool);
+    }
+
+    /**
+     * Same as sendUserDataRelay but data are passed as one Base64 string.
+     */
+    @ReactMethod
+    public void sendUserDataRelayBase64(String address, int destInterface, String data, Callback callback) {
+      try {
+        sendRelayFrames(address, destInterface, Collections.singletonList(Base64Codec.decode(data, relayPool)), callback,
+          false, relayPool);
+      } catch (IllegalArgumentException e) {
+        callback.invoke(e.getMessage());
       }
-      byte[] decoded = new byte[data.size()];
-      for (int i = 0; i < data.size(); i++) {
-          decoded[i] = new Integer(data.getInt(i)).byteValue();
+    }
+
+    /**
+     * Sends every Base64 string of frames as its own relay frame within a single bridge call.
+     */
+    @ReactMethod
+    public void sendUserDataRelayBatch(String address, int destInterface, ReadableArray frames, Callback callback) {
+      int count = frames.size();
+      List<byte[]> decoded = new ArrayList<byte[]>(count);
+      for (int i = 0; i < count; i++) {
+        try {
+          decoded.add(Base64Codec.decode(frames.getString(i), relayPool));
+        } catch (IllegalArgumentException e) {
+          for (byte[] frame : decoded) {
+            relayPool.release(frame);
+          }
+          callback.invoke("Frame " + i + ": " + e.getMessage(), 0);
+          return;
+        }
       }
-      final XBeeBLEDevice xbeeDevice = connectedXbeeDevices.get(address);
-      xbeeDevice.sendUserDataRelay(XBeeLocalInterface.get(destInterface), decoded);
-      callback.invoke();
+      sendRelayFrames(address, destInterface, decoded, callback, true, relayPool);
     }
 
-    private boolean checkIfConnected(String address) {
-      return connectedXbeeDevices.containsKey(address);
+    /**
+     * Sends Base64 data and waits for the reply accepted by matcher. Callback gets
+     * map with sourceInterface and data of the reply, encoded as set by setReceiveMode.
+     * Replies are not emitted as XbeeReceivedUserDataRelay.
+     */
+    @ReactMethod
+    public void request(String address, int destInterface, String data, ReadableMap matcher, int timeout,
+                        final Callback callback) {
+      final RelayRequests.Pending pending;
+      byte[] decoded = null;
+      try {
+        decoded = Base64Codec.decode(data, relayPool);
+        pending = relayRequests.register(address, RelayRequests.Matcher.fromMap(matcher, destInterface, decoded),
+          timeout > 0 ? timeout : RelayRequests.DEFAULT_TIMEOUT_MS, new RelayRequests.Reply() {
+            @Override
+            public void onReply(int sourceInterface, byte[] data) {
+              WritableMap map = Arguments.createMap();
+              map.putInt("sourceInterface", sourceInterface);
+              RelayData.put(map, data, receiveBase64);
+              callback.invoke(null, map);
+            }
+
+            @Override
+            public void onError(String message) {
+              callback.invoke(message);
+            }
+          });
+      } catch (IllegalArgumentException e) {
+        relayPool.release(decoded);
+        callback.invoke(e.getMessage());
+        return;
+      }
+      sendRelayFrames(address, destInterface, Collections.singletonList(decoded), new Callback() {
+        @Override
+        public void invoke(Object... args) {
+          if (args.length > 0 && args[0] != null) {
+            pending.fail(args[0].toString());
+          }
+        }
+      }, false, relayPool);
+    }
+
+    /**
+     * Sends Base64 data through the connected device to the remote node with 64-bit address
+     * destination. Callback gets map with status and retries of the transmit status.
+     */
+    @ReactMethod
+    public void sendRemote(String address, String destination, String data, ReadableMap options,
+                           final Callback callback) {
+      final byte[] decoded;
+      try {
+        checkDestination(destination);
+        decoded = Base64Codec.decode(data);
+      } catch (IllegalArgumentException e) {
+        callback.invoke(e.getMessage());
+        return;
+      }
+      sendTransmits(address, Collections.singletonList(destination), Collections.singletonList(decoded), options,
+        new TransmitResults() {
+          @Override
+          public void onResults(WritableMap[] statuses) {
+            callback.invoke(null, statuses[0]);
+          }
+
+          @Override
+          public void onError(String message) {
+            callback.invoke(message);
+          }
+        });
     }
 
+    /**
+     * Sends frames, maps with destination and Base64 data, to remote nodes within a single
+     * bridge call. Frames are sent back to back without waiting for their transmit status.
+     * Callback gets array with map of status and retries, or error, per frame.
+     */
     @ReactMethod
-    private void sendFile(ReadableMap options, Callback callback) {
-        if(!options.hasKey("address")) {
-          callback.invoke("Address of device need to be provided");
-        } else if (!options.hasKey("url")) {
-          callback.invoke("Url of file does not exists");
+    public void sendRemoteBatch(String address, ReadableArray frames, ReadableMap options, final Callback callback) {
+      int count = frames.size();
+      if (count == 0) {
+        callback.invoke(null, Arguments.createArray());
+        return;
+      }
+      List<String> destinations = new ArrayList<String>(count);
+      List<byte[]> decoded = new ArrayList<byte[]>(count);
+      for (int i = 0; i < count; i++) {
+        ReadableMap frame = frames.getMap(i);
+        try {
+          destinations.add(checkDestination(frame.getString("destination")));
+          decoded.add(Base64Codec.decode(frame.getString("data")));
+        } catch (IllegalArgumentException e) {
+          callback.invoke("Frame " + i + ": " + e.getMessage());
+          return;
         }
-        if(!checkIfConnected(options.getString("address"))) {
-          callback.invoke("Device is not connected");
+      }
+      sendTransmits(address, destinations, decoded, options, new TransmitResults() {
+        @Override
+        public void onResults(WritableMap[] statuses) {
+          WritableArray array = Arguments.createArray();
+          for (WritableMap status : statuses) {
+            array.pushMap(status);
+          }
+          callback.invoke(null, array);
+        }
+
+        @Override
+        public void onError(String message) {
+          callback.invoke(message);
         }
-        new DownloadFileFromURL(options.getString("address"), callback)
-          .execute(options.getString("url"));
+      });
     }
 
-    public static WritableMap byteArrayToWritableMap(byte[] bytes) throws JSONException {
-    		WritableMap object = Arguments.createMap();
-    		object.putString("CDVType", "ArrayBuffer");
-    		object.putString("data", bytes != null ? Base64.encodeToString(bytes, Base64.NO_WRAP) : null);
-    		return object;
+    /**
+     * @return destination when it is a 64-bit address, so it is not rejected on the device executor
+     */
+    private static String checkDestination(@Nullable String destination) {
+      if (destination == null) {
+        throw new IllegalArgumentException("Destination is missing");
+      }
+      // throws IllegalArgumentException for anything but up to 16 hex digits
+      new XBee64BitAddress(destination);
+      return destination;
     }
 
-    private class BleScanCallback implements BluetoothAdapter.LeScanCallback {
+    interface TransmitResults {
+        void onResults(WritableMap[] statuses);
+
+        void onError(String message);
+    }
+
+    /**
+     * Sends transmit requests in order on the executor of the device. Their statuses are
+     * collected as they arrive, results are reported once every frame has its status.
+     */
+    private void sendTransmits(final String address, final List<String> destinations, final List<byte[]> frames,
+                               ReadableMap options, final TransmitResults results) {
+      final int radius = options != null && options.hasKey("radius") ? options.getInt("radius") : 0;
+      final int transmitOptions = options != null && options.hasKey("transmitOptions")
+        ? options.getInt("transmitOptions") : 0;
+      final long timeout = options != null && options.hasKey("timeout")
+        ? options.getInt("timeout") : TransmitRequests.DEFAULT_TIMEOUT_MS;
+      deviceExecutor.execute(address, new Runnable() {
+        private final WritableMap[] statuses = new WritableMap[frames.size()];
+        private final AtomicInteger remaining = new AtomicInteger(frames.size());
+
         @Override
-        public void onLeScan(final BluetoothDevice device, final int rssi,
-                   final byte[] scanRecord) {
-          runOnUiThread(new Runnable() {
+        public void run() {
+          final DeviceConnection connection = registry.get(address);
+          XbeeLink xbeeDevice = registry.getConnectedDevice(address);
+          if (xbeeDevice == null) {
+            results.onError("Device is not connected");
+            return;
+          }
+          for (int i = 0; i < frames.size(); i++) {
+            byte[] frame = frames.get(i);
+            TransmitRequests.Pending pending = null;
+            try {
+              while (pending == null) {
+                pending = transmitRequests.register(address, xbeeDevice.nextFrameId(), timeout, status(i));
+              }
+              connection.sendScheduler.acquire(SendScheduler.Priority.CONTROL, frame.length);
+              try {
+                long sendStart = System.nanoTime();
+                xbeeDevice.sendTransmitAsync(pending.frameId, destinations.get(i), frame, radius, transmitOptions);
+                metrics.recordSend(address, frame.length, System.nanoTime() - sendStart);
+              } finally {
+                connection.sendScheduler.release();
+              }
+            } catch (InterruptedException e) {
+              failFrom(i, pending, "Interrupted while sending");
+              return;
+            } catch (XBeeException e) {
+              e.printStackTrace();
+              metrics.recordSendError(address);
+              transmitRequests.cancel(pending);
+              if (!reconnect(connection, xbeeDevice)) {
+                failFrom(i, null, "Failed to send transmit request");
+                return;
+              }
+              // replay the frame which failed on the new connection
+              xbeeDevice = connection.getDevice();
+              i--;
+            } catch (RuntimeException e) {
+              e.printStackTrace();
+              metrics.recordSendError(address);
+              failFrom(i, pending, "Frame " + i + ": " + e.getMessage());
+              return;
+            }
+          }
+        }
+
+        private TransmitRequests.Status status(final int index) {
+          return new TransmitRequests.Status() {
             @Override
-            public void run() {
-              Log.i(LOG_TAG, "DiscoverPeripheral: " + device.getName());
+            public void onStatus(int status, int retries) {
               WritableMap map = Arguments.createMap();
-              WritableMap advertising = Arguments.createMap();
-              try {
-              			map.putString("name", device.getName());
-              			map.putString("id", device.getAddress()); // mac address
-              			map.putInt("rssi", rssi);
+              map.putInt("status", status);
+              map.putInt("retries", retries);
+              map.putBoolean("delivered", status == TransmitRequests.STATUS_SUCCESS);
+              done(index, map);
+            }
 
-              			String name = device.getName();
-              			if (name != null)
-              				advertising.putString("localName", name);
+            @Override
+            public void onError(String message) {
+              done(index, error(message));
+            }
+          };
+        }
 
-                    advertising.putMap("manufacturerData", byteArrayToWritableMap(scanRecord));
+        private WritableMap error(String message) {
+          WritableMap map = Arguments.createMap();
+          map.putString("error", message);
+          map.putBoolean("delivered", false);
+          return map;
+        }
 
-                    // No scanResult to access so we can't check if peripheral is connectable
-                    advertising.putBoolean("isConnectable", true);
+        /**
+         * Fails frames which were not sent, starting by index.
+         */
+        private void failFrom(int index, @Nullable TransmitRequests.Pending pending, String message) {
+          if (pending != null) {
+            pending.fail(message);
+            index++;
+          }
+          for (int i = index; i < frames.size(); i++) {
+            done(i, error(message));
+          }
+        }
 
-                    map.putMap("advertising", advertising);
-              } catch (Exception e) { // this shouldn't happen
-                e.printStackTrace();
-              }
-              sendEvent("BleManagerDiscoverPeripheral", map);
-            }
-          });
+        private void done(int index, WritableMap status) {
+          statuses[index] = status;
+          if (remaining.decrementAndGet() == 0) {
+            results.onResults(statuses);
+          }
         }
+      });
     }
 
     /**
-     * Listener to be notified when new User Data Relay messages are received.
+     * Reads AT parameters, e.g. VR or NI, of the connected device. Values which are cached
+     * and not older than maxAge are returned without asking the radio, the others are read
+     * in one pipelined batch. Callback gets map with values, parameter to Base64, and errors.
      */
-    private class UserDataRelayListener implements IUserDataRelayReceiveListener {
-        private String id;
-        public UserDataRelayListener(String id) {
-          this.id = id;
+    @ReactMethod
+    public void getParameters(String address, ReadableArray parameters, ReadableMap options, final Callback callback) {
+      final long maxAge = options != null && options.hasKey("maxAge") ? options.getInt("maxAge") : -1;
+      final WritableMap values = Arguments.createMap();
+      List<ParameterBatch.Command> commands = new ArrayList<ParameterBatch.Command>();
+      for (int i = 0; i < parameters.size(); i++) {
+        String parameter = parameters.getString(i).toUpperCase(Locale.ROOT);
+        byte[] cached = maxAge != 0 ? parameterCache.get(address, parameter, maxAge) : null;
+        if (cached != null) {
+          values.putString(parameter, Base64Codec.encode(cached));
+        } else {
+          commands.add(new ParameterBatch.Command(parameter, null));
+        }
+      }
+      if (commands.isEmpty()) {
+        WritableMap result = Arguments.createMap();
+        result.putMap("values", values);
+        result.putMap("errors", Arguments.createMap());
+        callback.invoke(null, result);
+        return;
+      }
+      runParameters(address, commands, false, false, options, new ParameterResults() {
+        @Override
+        public void onResults(List<ParameterBatch.Command> commands, WritableMap errors) {
+          for (ParameterBatch.Command command : commands) {
+            if (command.isOk()) {
+              values.putString(command.parameter, Base64Codec.encode(command.response));
+            }
+          }
+          WritableMap result = Arguments.createMap();
+          result.putMap("values", values);
+          result.putMap("errors", errors);
+          callback.invoke(null, result);
         }
 
         @Override
-        public void userDataRelayReceived(final UserDataRelayMessage userDataRelayMessage) {
-            final String btId = this.id;
-            (new Runnable() {
-                @Override
-                public void run() {
-                  WritableMap map = Arguments.createMap();
-                  map.putInt("sourceInterface", userDataRelayMessage.getSourceInterface().getID());
-                  map.putString("id", btId);
-                  WritableArray data = Arguments.createArray();
-                  byte[] originData = userDataRelayMessage.getData();
-                  for(int i = 0; i < originData.length; i++) {
-                    data.pushInt(originData[i]);
-                  }
-                  map.putArray("data", data);
-                  sendEvent("XbeeReceivedUserDataRelay", map);
-                }
-            }).run();
+        public void onError(String message) {
+          callback.invoke(message);
         }
+      });
     }
 
     /**
-     * Background Async Task to download file
-     * */
-    private class DownloadFileFromURL extends AsyncTask<String, ReadableMap, String> {
-
-        String address;
-        Callback callback;
-
-        public DownloadFileFromURL(String address, Callback callback) {
-          this.address = address;
-          this.callback = callback;
+     * Sets AT parameters from map of parameter to Base64 value. Values are queued and
+     * applied together by one AC when all were accepted, with write also saved by WR.
+     * Callback gets map with errors of rejected parameters.
+     */
+    @ReactMethod
+    public void setParameters(String address, ReadableMap values, ReadableMap options, final Callback callback) {
+      boolean apply = options == null || !options.hasKey("apply") || options.getBoolean("apply");
+      boolean write = options != null && options.hasKey("write") && options.getBoolean("write");
+      List<ParameterBatch.Command> commands = new ArrayList<ParameterBatch.Command>();
+      ReadableMapKeySetIterator iterator = values.keySetIterator();
+      while (iterator.hasNextKey()) {
+        String parameter = iterator.nextKey();
+        try {
+          commands.add(new ParameterBatch.Command(parameter.toUpperCase(Locale.ROOT),
+            Base64Codec.decode(values.getString(parameter))));
+        } catch (IllegalArgumentException e) {
+          callback.invoke(parameter + ": " + e.getMessage());
+          return;
         }
-
-        /**
-         * Before starting background thread Show Progress Bar Dialog
-         * */
+      }
+      runParameters(address, commands, apply, write, options, new ParameterResults() {
         @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
+        public void onResults(List<ParameterBatch.Command> commands, WritableMap errors) {
+          WritableMap result = Arguments.createMap();
+          result.putMap("errors", errors);
+          callback.invoke(null, result);
         }
 
-        /**
-         * Downloading file in background thread and send it to interface
-         * */
         @Override
-        protected String doInBackground(String... f_url) {
-            int count;
-            try {
-                URL url = new URL(f_url[0]);
-                URLConnection connection = "https".equals(url.getProtocol())
-                  ? (HttpsURLConnection)url.openConnection()
-                  : (URLConnection)url.openConnection();
-                //URLConnection connection = url.openConnection();
-                connection.connect();
-
-                // this will be useful so that you can show a 0-100%
-                // progress bar
-                int lengthOfFile = connection.getContentLength();
-
-                // download the file
-                InputStream input = new BufferedInputStream(url.openStream(),
-                        8192);
-
-                int sizeOfBuffer = 232;
-                byte data[] = new byte[sizeOfBuffer + 2];
-                long total = 0;
-                long total_chunks = 0;
-                long start = System.currentTimeMillis();
-                final XBeeBLEDevice xbeeDevice = connectedXbeeDevices.get(address);
-                while ((count = input.read(data, 2, sizeOfBuffer)) != -1) {
-                    total += count;
-                    total_chunks++;
+        public void onError(String message) {
+          callback.invoke(message);
+        }
+      });
+    }
+
+    /**
+     * Drops cached values of the parameters, or of all parameters of the device when
+     * parameters is null.
+     */
+    @ReactMethod
+    public void invalidateParameters(String address, @Nullable ReadableArray parameters) {
+      if (parameters == null) {
+        parameterCache.invalidate(address);
+        return;
+      }
+      for (int i = 0; i < parameters.size(); i++) {
+        parameterCache.invalidate(address, parameters.getString(i));
+      }
+    }
 
-                    Log.i(LOG_TAG, "Chunks: " + Long.toString(total_chunks) + " Bytes: " + Long.toString(total)) ;
+    interface ParameterResults {
+        void onResults(List<ParameterBatch.Command> commands, WritableMap errors);
 
-                    data[0] = (byte)'F';
-                    data[1] = (byte)((total_chunks % 255) + 1);
+        void onError(String message);
+    }
 
-                    final XBeePacket xbeePacket = new UserDataRelayPacket(xbeeDevice.getNextFrameID(),
-                            XBeeLocalInterface.SERIAL, count != sizeOfBuffer ? Arrays.copyOfRange(data, 0, count + 2) : data);
-                    try {
-                        xbeeDevice.sendPacketAsync(xbeePacket);
-                    } catch (XBeeException e) {
-                        callback.invoke("Failed to send xbee relay message");
-                        e.printStackTrace();
-                        break;
-                    }
-                    WritableMap map = Arguments.createMap();
-                    map.putString("address", address);
-                    map.putInt("chunks", (int)total_chunks);
-                    map.putInt("bytes", (int)total);
-                    map.putInt("fileLength", lengthOfFile);
-                    map.putInt("progress", (int) ((total * 100) / lengthOfFile));
-                    map.putDouble("speed", (double)(total) / (System.currentTimeMillis() - start));
-                    map.putBoolean("isDone", total == lengthOfFile);
-                    publishProgress(map);
+    /**
+     * Runs the commands as one batch on the executor of the device and updates the cache.
+     * Values which were set are cached only once they were applied.
+     */
+    private void runParameters(final String address, final List<ParameterBatch.Command> commands, final boolean apply,
+                               final boolean write, ReadableMap options, final ParameterResults results) {
+      final long timeout = options != null && options.hasKey("timeout")
+        ? options.getInt("timeout") : ParameterBatch.DEFAULT_TIMEOUT_MS;
+      deviceExecutor.execute(address, new Runnable() {
+        @Override
+        public void run() {
+          final DeviceConnection connection = registry.get(address);
+          final XbeeLink xbeeDevice = registry.getConnectedDevice(address);
+          if (xbeeDevice == null) {
+            results.onError("Device is not connected");
+            return;
+          }
+          ParameterBatch batch = new ParameterBatch(commands, apply, write,
+            ParameterBatch.DEFAULT_MAX_IN_FLIGHT, timeout);
+          String failure = null;
+          try {
+            batch.run(xbeeDevice, new ParameterBatch.Sender() {
+              @Override
+              public void send(int frameId, String command, byte[] value, boolean queued)
+                  throws XBeeException, InterruptedException {
+                int length = value != null ? value.length : 0;
+                connection.sendScheduler.acquire(SendScheduler.Priority.CONTROL, length);
+                try {
+                  long sendStart = System.nanoTime();
+                  xbeeDevice.sendAtCommandAsync(frameId, command, value, queued);
+                  metrics.recordSend(address, length, System.nanoTime() - sendStart);
+                } finally {
+                  connection.sendScheduler.release();
                 }
-                long end = System.currentTimeMillis();
-                Log.i(LOG_TAG, "Total chunks: " + Long.toString(total_chunks) + " Total: " + Long.toString(end - start) + " [ms] "
-                      + Long.toString(total) + " bytes => " + Double.toString(new Double(total) / new Double(end - start)) + " kB/s");
+              }
+            });
+          } catch (InterruptedException e) {
+            results.onError("Interrupted while sending");
+            return;
+          } catch (XBeeException e) {
+            e.printStackTrace();
+            metrics.recordSendError(address);
+            // queued values are lost with the connection, the batch can be run again
+            reconnect(connection, xbeeDevice);
+            results.onError("Failed to send AT command");
+            return;
+          } catch (IOException e) {
+            failure = e.getMessage();
+          }
+          boolean applied = failure == null && apply;
+          WritableMap errors = Arguments.createMap();
+          for (ParameterBatch.Command command : commands) {
+            if (!command.isOk()) {
+              errors.putString(command.parameter, command.error != null ? command.error
+                : "Status " + command.status);
+              parameterCache.invalidate(address, command.parameter);
+            } else if (command.value == null) {
+              parameterCache.put(address, command.parameter, command.response);
+            } else if (applied) {
+              parameterCache.put(address, command.parameter, command.value);
+            } else {
+              // queued on the device, but not applied yet
+              parameterCache.invalidate(address, command.parameter);
+            }
+          }
+          if (failure != null) {
+            results.onError(failure);
+            return;
+          }
+          results.onResults(commands, errors);
+        }
+      });
+    }
 
-                input.close();
-            } catch (Exception e) {
-                Log.e(LOG_TAG, e.getMessage());
-                callback.invoke(e.getMessage());
+    /**
+     * Sends frames in order on the executor of the device. With pool the frames are
+     * released to it when done, frames shared by several devices are passed without pool.
+     */
+    private void sendRelayFrames(final String address, final int destInterface, final List<byte[]> frames,
+                                 final Callback callback, final boolean reportCount, @Nullable final FramePool pool) {
+      deviceExecutor.execute(address, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            send();
+          } finally {
+            if (pool != null) {
+              for (byte[] frame : frames) {
+                pool.release(frame);
+              }
+            }
+          }
+        }
+
+        private void send() {
+          final DeviceConnection connection = registry.get(address);
+          XbeeLink xbeeDevice = registry.getConnectedDevice(address);
+          if (xbeeDevice == null) {
+            callback.invoke("Device is not connected");
+            return;
+          }
+          XBeeLocalInterface iface = XBeeLocalInterface.get(destInterface);
+          for (int i = 0; i < frames.size(); i++) {
+            try {
+              writeFrame(connection, xbeeDevice, SendScheduler.Priority.CONTROL, iface, frames.get(i));
+            } catch (InterruptedException e) {
+              callback.invoke("Interrupted while sending", i);
+              return;
+            } catch (XBeeException e) {
+              e.printStackTrace();
+              metrics.recordSendError(address);
+              if (!reconnect(connection, xbeeDevice)) {
+                callback.invoke("Failed to send xbee relay message", i);
+                return;
+              }
+              // replay the frame which failed on the new connection
+              xbeeDevice = connection.getDevice();
+              i--;
             }
+          }
+          if (reportCount) {
+            callback.invoke(null, frames.size());
+          } else {
+            callback.invoke();
+          }
+        }
+      });
+    }
+
+    /**
+     * Writes frame to the device when the send scheduler of the connection gives it a turn.
+     * Control frames wait for the frame being written, not for queued file chunks.
+     */
+    private void writeFrame(DeviceConnection connection, XbeeLink xbeeDevice, SendScheduler.Priority priority,
+                            XBeeLocalInterface iface, byte[] frame) throws XBeeException, InterruptedException {
+      connection.sendScheduler.acquire(priority, frame.length);
+      try {
+        long sendStart = System.nanoTime();
+        if (priority == SendScheduler.Priority.BULK) {
+          xbeeDevice.sendUserDataRelayAsync(iface, frame);
+        } else {
+          xbeeDevice.sendUserDataRelay(iface, frame);
+        }
+        metrics.recordSend(connection.address, frame.length, System.nanoTime() - sendStart);
+      } finally {
+        connection.sendScheduler.release();
+      }
+      FrameCapture capture = session.capture;
+      if (capture != null) {
+        capture.record(connection.address, priority == SendScheduler.Priority.BULK
+          ? FrameCapture.SENT_BULK : FrameCapture.SENT_CONTROL, iface.getID(), frame);
+      }
+    }
 
-            return null;
+    private boolean checkIfConnected(String address) {
+      return registry.isConnected(address);
+    }
+
+    /**
+     * Sends file to one device. With transferId in options the transfer can be
+     * cancelled, paused and resumed by that id while it runs.
+     */
+    @ReactMethod
+    public void sendFile(ReadableMap options, Promise promise) {
+        if(!options.hasKey("address")) {
+          promise.reject("E_INVALID_OPTIONS", "Address of device need to be provided");
+          return;
+        } else if (!options.hasKey("url")) {
+          promise.reject("E_INVALID_OPTIONS", "Url of file does not exists");
+          return;
+        }
+        if(!checkIfConnected(options.getString("address"))) {
+          promise.reject("E_NOT_CONNECTED", "Device is not connected");
+          return;
+        }
+        if (activeTransfers.containsKey(options.getString("address"))) {
+          promise.reject("E_BUSY", "File transfer already in progress");
+          return;
+        }
+        TransferControl control = registerControl(options);
+        if (control == null) {
+          promise.reject("E_BUSY", "Transfer id is already used");
+          return;
+        }
+        // transfers of different devices run in parallel, not on the serial AsyncTask executor
+        new DownloadFileFromURL(options.getString("address"), options, control, promise)
+          .executeOnExecutor(transferExecutor, options.getString("url"));
+    }
+
+    /**
+     * Sends the same file to all addresses, at most concurrency transfers run at once.
+     * File is downloaded only once and shared by all transfers. Promise resolves with map of
+     * address to error message, null for devices which received the file. transferId
+     * controls all transfers of the fan out.
+     */
+    @ReactMethod
+    public void sendFileToDevices(final ReadableMap options, final Promise promise) {
+        if (!options.hasKey("addresses")) {
+          promise.reject("E_INVALID_OPTIONS", "Addresses of devices need to be provided");
+          return;
+        } else if (!options.hasKey("url")) {
+          promise.reject("E_INVALID_OPTIONS", "Url of file does not exists");
+          return;
+        }
+        final List<String> addresses = new ArrayList<String>();
+        ReadableArray array = options.getArray("addresses");
+        for (int i = 0; i < array.size(); i++) {
+            addresses.add(array.getString(i));
+        }
+        final int concurrency = options.hasKey("concurrency") ? Math.max(1, options.getInt("concurrency")) : 4;
+        TransferControl control = registerControl(options);
+        if (control == null) {
+          promise.reject("E_BUSY", "Transfer id is already used");
+          return;
+        }
+        transferExecutor.execute(new FileFanOut(options.getString("url"), addresses, concurrency, options,
+          control, promise));
+    }
+
+    /**
+     * Receives a file from the device into path or into memory with base64 option, file
+     * bytes never cross the bridge as events. Promise resolves with path or Base64 data
+     * and length. With resume option an existing file at path is continued.
+     */
+    @ReactMethod
+    public void receiveFile(ReadableMap options, Promise promise) {
+        if (!options.hasKey("address")) {
+          promise.reject("E_INVALID_OPTIONS", "Address of device need to be provided");
+          return;
+        }
+        String address = options.getString("address");
+        if (!checkIfConnected(address)) {
+          promise.reject("E_NOT_CONNECTED", "Device is not connected");
+          return;
+        }
+        FileReceiver previous = activeReceives.get(address);
+        if (previous != null && !previous.isComplete()) {
+          promise.reject("E_BUSY", "File receive already in progress");
+          return;
+        }
+        TransferControl control = registerControl(options);
+        if (control == null) {
+          promise.reject("E_BUSY", "Transfer id is already used");
+          return;
+        }
+        transferExecutor.execute(new ReceiveFile(address, options, control, promise));
+    }
+
+    /**
+     * @return handle of the transfer or null when transferId is already used
+     */
+    @Nullable
+    private TransferControl registerControl(ReadableMap options) {
+        String id = options.hasKey("transferId") ? options.getString("transferId") : UUID.randomUUID().toString();
+        TransferControl control = new TransferControl(id);
+        return transferControls.putIfAbsent(id, control) == null ? control : null;
+    }
+
+    /**
+     * Stops the transfer, frames are no longer sent and its promise is rejected with E_CANCELLED.
+     */
+    @ReactMethod
+    public void cancelTransfer(String transferId, Promise promise) {
+        TransferControl control = transferControls.get(transferId);
+        if (control == null) {
+          promise.reject("E_NOT_FOUND", "Transfer not found");
+          return;
+        }
+        control.cancel();
+        promise.resolve(null);
+    }
+
+    /**
+     * Stops sending frames of the transfer until it is resumed, link is free for other traffic.
+     */
+    @ReactMethod
+    public void pauseTransfer(String transferId, Promise promise) {
+        TransferControl control = transferControls.get(transferId);
+        if (control == null) {
+          promise.reject("E_NOT_FOUND", "Transfer not found");
+          return;
+        }
+        control.pause();
+        promise.resolve(null);
+    }
+
+    @ReactMethod
+    public void resumeTransfer(String transferId, Promise promise) {
+        TransferControl control = transferControls.get(transferId);
+        if (control == null) {
+          promise.reject("E_NOT_FOUND", "Transfer not found");
+          return;
+        }
+        control.resume();
+        promise.resolve(null);
+    }
+
+    private void settleTransfer(TransferControl control, Promise promise, @Nullable String error, Object result) {
+        transferControls.remove(control.id, control);
+        // the promise is lost when JS reloaded during the transfer
+        WritableMap finished = Arguments.createMap();
+        finished.putString("transferId", control.id);
+        finished.putString("error", error);
+        sendEvent("XbeeTransferFinished", finished);
+        if (error == null) {
+          promise.resolve(result);
+        } else {
+          promise.reject(control.isCancelled() ? "E_CANCELLED" : "E_TRANSFER", error);
+        }
+    }
+
+    /**
+     * Sends the same Base64 payload to all addresses, devices are served in parallel.
+     * Callback gets map of address to error message, null for devices where it was sent.
+     */
+    @ReactMethod
+    public void sendUserDataRelayToDevices(ReadableArray addresses, int destInterface, String data, final Callback callback) {
+        final byte[] decoded;
+        try {
+            decoded = Base64Codec.decode(data);
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage());
+            return;
+        }
+        final int count = addresses.size();
+        if (count == 0) {
+            callback.invoke(null, Arguments.createMap());
+            return;
+        }
+        final Map<String, String> results = new ConcurrentHashMap<String, String>();
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final String address = addresses.getString(i);
+            sendRelayFrames(address, destInterface, Collections.singletonList(decoded), new Callback() {
+                @Override
+                public void invoke(Object... args) {
+                    results.put(address, args.length > 0 && args[0] != null ? args[0].toString() : "");
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.invoke(null, resultsToMap(results));
+                    }
+                }
+            }, false, null);
+        }
+    }
+
+    private static WritableMap resultsToMap(Map<String, String> results) {
+        WritableMap map = Arguments.createMap();
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                map.putNull(entry.getKey());
+            } else {
+                map.putString(entry.getKey(), entry.getValue());
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Configures how received user data relay frames are delivered to JS. With
+     * encoding 'base64' data are sent as string, with batch enabled frames arriving
+     * within batchInterval ms are emitted together as XbeeReceivedUserDataRelayBatch.
+     * Frames wait for JS in a queue of queueCapacity frames, overflow selects what
+     * happens when it is full: 'dropOldest', 'dropNewest', 'block' or 'spill'.
+     */
+    @ReactMethod
+    public void setReceiveMode(ReadableMap options, Callback callback) {
+        ReceiveQueue.Policy overflow;
+        try {
+            overflow = options.hasKey("overflow")
+              ? ReceiveQueue.Policy.fromName(options.getString("overflow")) : ReceiveQueue.Policy.DROP_OLDEST;
+        } catch (IllegalArgumentException e) {
+            callback.invoke(e.getMessage());
+            return;
+        }
+        session.receiveQueue.configure(overflow,
+            options.hasKey("queueCapacity") ? options.getInt("queueCapacity") : ReceiveQueue.DEFAULT_CAPACITY,
+            options.hasKey("blockTimeout") ? options.getInt("blockTimeout") : ReceiveQueue.DEFAULT_BLOCK_TIMEOUT_MS,
+            options.hasKey("maxSpillBytes") ? (long) options.getDouble("maxSpillBytes")
+              : ReceiveQueue.DEFAULT_MAX_SPILL_BYTES);
+        receiveBase64 = options.hasKey("encoding") && "base64".equals(options.getString("encoding"));
+        RelayEventBatcher previous = receiveBatcher;
+        if (options.hasKey("batch") && options.getBoolean("batch")) {
+            receiveBatcher = new RelayEventBatcher(new RelayBatchEmitter(),
+                options.hasKey("batchInterval") ? options.getInt("batchInterval") : RelayEventBatcher.DEFAULT_INTERVAL_MS,
+                options.hasKey("batchMaxFrames") ? options.getInt("batchMaxFrames") : RelayEventBatcher.DEFAULT_MAX_FRAMES,
+                options.hasKey("batchMaxBytes") ? options.getInt("batchMaxBytes") : RelayEventBatcher.DEFAULT_MAX_BYTES);
+        } else {
+            receiveBatcher = null;
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+        callback.invoke();
+    }
+
+    /**
+     * Starts foreground service which keeps connections and transfers running while the app
+     * is in background and through JS reloads. Options notificationTitle and notificationText
+     * are shown in the notification of the service.
+     */
+    @ReactMethod
+    public void startBackgroundMode(ReadableMap options, Promise promise) {
+        Intent intent = new Intent(context, XbeeService.class);
+        if (options.hasKey("notificationTitle")) {
+            intent.putExtra(XbeeService.EXTRA_TITLE, options.getString("notificationTitle"));
+        }
+        if (options.hasKey("notificationText")) {
+            intent.putExtra(XbeeService.EXTRA_TEXT, options.getString("notificationText"));
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(intent);
+            } else {
+                context.startService(intent);
+            }
+        } catch (RuntimeException e) {
+            // e.g. started while the app is not in foreground
+            promise.reject("E_BACKGROUND", e.getMessage() != null ? e.getMessage() : e.toString());
+            return;
+        }
+        promise.resolve(null);
+    }
+
+    /**
+     * Stops the foreground service, connections and transfers stay until JS reloads.
+     */
+    @ReactMethod
+    public void stopBackgroundMode(Promise promise) {
+        context.stopService(new Intent(context, XbeeService.class));
+        promise.resolve(null);
+    }
+
+    /**
+     * Returns what is running in native, used after JS reload to pick up connections and
+     * transfers started by the previous runtime.
+     */
+    @ReactMethod
+    public void getSessionState(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        map.putBoolean("background", session.isBackground());
+        WritableArray devices = Arguments.createArray();
+        for (DeviceConnection connection : registry.getAll()) {
+            WritableMap device = Arguments.createMap();
+            device.putString("id", connection.address);
+            device.putString("state", connection.getState().getName());
+            devices.pushMap(device);
+        }
+        map.putArray("devices", devices);
+        WritableArray transfers = Arguments.createArray();
+        for (Map.Entry<String, FileTransfer> entry : activeTransfers.entrySet()) {
+            FileTransfer transfer = entry.getValue();
+            transfers.pushMap(transferState(entry.getKey(), transfer, "send",
+                transfer.getBytesTransferred(), transfer.getLength()));
+        }
+        for (Map.Entry<String, FileReceiver> entry : activeReceives.entrySet()) {
+            FileReceiver receiver = entry.getValue();
+            if (!receiver.isComplete()) {
+                transfers.pushMap(transferState(entry.getKey(), receiver, "receive",
+                    receiver.getBytesReceived(), receiver.getLength()));
+            }
+        }
+        map.putArray("transfers", transfers);
+        promise.resolve(map);
+    }
+
+    private WritableMap transferState(String address, Object transfer, String direction, long bytes, long length) {
+        WritableMap map = Arguments.createMap();
+        String transferId = null;
+        for (TransferControl control : transferControls.values()) {
+            if (control.controls(transfer)) {
+                transferId = control.id;
+                break;
+            }
+        }
+        map.putString("transferId", transferId);
+        map.putString("address", address);
+        map.putString("direction", direction);
+        map.putDouble("bytes", bytes);
+        map.putDouble("fileLength", length);
+        return map;
+    }
+
+    /**
+     * Records relay frames of all devices to path, new file in app cache by default.
+     * Resolves with the path of the capture.
+     */
+    @ReactMethod
+    public synchronized void startCapture(ReadableMap options, Promise promise) {
+        if (session.capture != null) {
+            promise.reject("E_BUSY", "Capture already running");
+            return;
+        }
+        File file = options.hasKey("path")
+            ? new File(options.getString("path"))
+            : new File(new File(reactContext.getCacheDir(), "xbee-captures"), System.currentTimeMillis() + ".xbcp");
+        if (file.getParentFile() != null && !file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            promise.reject("E_CAPTURE", "Cannot create directory of " + file);
+            return;
+        }
+        try {
+            session.capture = new FrameCapture(file,
+                options.hasKey("bufferSize") ? options.getInt("bufferSize") : FrameCapture.DEFAULT_BUFFER_SIZE,
+                options.hasKey("flushInterval") ? options.getInt("flushInterval") : FrameCapture.DEFAULT_FLUSH_INTERVAL_MS);
+        } catch (IOException e) {
+            promise.reject("E_CAPTURE", e.getMessage());
+            return;
+        }
+        promise.resolve(file.getAbsolutePath());
+    }
+
+    /**
+     * Stops the capture, resolves with path, frames and bytes recorded and frames dropped
+     * because the buffer was full.
+     */
+    @ReactMethod
+    public synchronized void stopCapture(Promise promise) {
+        FrameCapture capture = session.capture;
+        if (capture == null) {
+            promise.reject("E_NOT_FOUND", "Capture is not running");
+            return;
+        }
+        session.capture = null;
+        try {
+            capture.stop();
+        } catch (IOException e) {
+            promise.reject("E_CAPTURE", e.getMessage());
+            return;
+        }
+        WritableMap map = Arguments.createMap();
+        map.putString("path", capture.getFile().getAbsolutePath());
+        map.putDouble("frames", capture.getFrames());
+        map.putDouble("bytes", capture.getBytes());
+        map.putDouble("dropped", capture.getDropped());
+        promise.resolve(map);
+    }
+
+    /**
+     * Plays capture at path against simulated devices connected as REPLAY_PREFIX + captured
+     * address. Sent frames go through the send path of the module, received frames are
+     * delivered as if the device sent them.
+     */
+    @ReactMethod
+    public void replayCapture(ReadableMap options, Promise promise) {
+        if (!options.hasKey("path")) {
+          promise.reject("E_INVALID_OPTIONS", "Path of capture need to be provided");
+          return;
+        }
+        transferExecutor.execute(new ReplayCapture(options, promise));
+    }
+
+    /**
+     * Returns metrics of one device, or of all devices and global when address is null.
+     */
+    @ReactMethod
+    public void getMetrics(@Nullable String address, Callback callback) {
+        if (address != null) {
+            callback.invoke(null, metrics.deviceToMap(address, deviceExecutor));
+        } else {
+            callback.invoke(null, metricsMap());
+        }
+    }
+
+    private WritableMap metricsMap() {
+        WritableMap map = metrics.toMap(deviceExecutor);
+        map.putMap("receiveQueue", session.receiveQueue.toMap());
+        return map;
+    }
+
+    @ReactMethod
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    /**
+     * Emits XbeeMetrics with all metrics every interval ms, 0 stops it.
+     */
+    @ReactMethod
+    public synchronized void setMetricsInterval(int interval) {
+        if (metricsScheduler != null) {
+            metricsScheduler.shutdownNow();
+            metricsScheduler = null;
+        }
+        if (interval > 0) {
+            metricsScheduler = Executors.newSingleThreadScheduledExecutor();
+            metricsScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    sendEvent("XbeeMetrics", metricsMap());
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @ReactMethod
+    public void clearStagedFiles(Callback callback) {
+        fileSource.clear();
+        callback.invoke();
+    }
+
+    public static WritableMap byteArrayToWritableMap(byte[] bytes) throws JSONException {
+    		WritableMap object = Arguments.createMap();
+    		object.putString("CDVType", "ArrayBuffer");
+    		object.putString("data", bytes != null ? Base64.encodeToString(bytes, Base64.NO_WRAP) : null);
+    		return object;
+    }
+
+    private class BleScanCallback implements BluetoothAdapter.LeScanCallback {
+        @Override
+        public void onLeScan(final BluetoothDevice device, final int rssi,
+                   final byte[] scanRecord) {
+          DiscoveryCache cache = discoveryCache;
+          if (cache != null) {
+            // No scanResult to access so we can't check if peripheral is connectable
+            cache.onResult(device.getAddress(), device.getName(), rssi, scanRecord, true);
+          }
+        }
+    }
+
+    private class DiscoveryEmitter implements DiscoveryCache.Emitter {
+        @Override
+        public void emitPeripheral(DiscoveryCache.Peripheral peripheral) {
+          sendEvent("BleManagerDiscoverPeripheral", peripheralToMap(peripheral));
+        }
+
+        @Override
+        public void emitPeripherals(List<DiscoveryCache.Peripheral> peripherals) {
+          WritableMap map = Arguments.createMap();
+          WritableArray array = Arguments.createArray();
+          for (DiscoveryCache.Peripheral peripheral : peripherals) {
+            array.pushMap(peripheralToMap(peripheral));
+          }
+          map.putArray("peripherals", array);
+          sendEvent("BleManagerDiscoverPeripherals", map);
+        }
+    }
+
+    private static WritableMap peripheralToMap(DiscoveryCache.Peripheral peripheral) {
+        WritableMap map = Arguments.createMap();
+        WritableMap advertising = Arguments.createMap();
+        try {
+            map.putString("name", peripheral.name);
+            map.putString("id", peripheral.address); // mac address
+            map.putInt("rssi", peripheral.rssi);
+
+            if (peripheral.name != null)
+                advertising.putString("localName", peripheral.name);
+
+            advertising.putMap("manufacturerData", byteArrayToWritableMap(peripheral.scanRecord));
+            advertising.putBoolean("isConnectable", peripheral.connectable);
+
+            map.putMap("advertising", advertising);
+        } catch (Exception e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+        return map;
+    }
+
+    /**
+     * Listener to be notified when new User Data Relay messages are received.
+     */
+    private class UserDataRelayListener implements IUserDataRelayReceiveListener {
+        private String id;
+        private int sequence;
+        public UserDataRelayListener(String id) {
+          this.id = id;
+        }
+
+        @Override
+        public void userDataRelayReceived(final UserDataRelayMessage userDataRelayMessage) {
+            final String btId = this.id;
+            metrics.recordReceive(btId, userDataRelayMessage.getData().length);
+            FrameCapture capture = session.capture;
+            if (capture != null) {
+                capture.record(btId, FrameCapture.RECEIVED, userDataRelayMessage.getSourceInterface().getID(),
+                    userDataRelayMessage.getData());
+            }
+            FileTransfer transfer = activeTransfers.get(btId);
+            if (transfer != null && transfer.onFrameReceived(userDataRelayMessage.getData())) {
+                return;
+            }
+            FileReceiver receiver = activeReceives.get(btId);
+            if (receiver != null && receiver.onFrameReceived(userDataRelayMessage.getData())) {
+                return;
+            }
+            if (relayRequests.onFrame(btId, userDataRelayMessage.getSourceInterface().getID(),
+                    userDataRelayMessage.getData())) {
+                return;
+            }
+            // handed to JS by the dispatcher of the queue so a slow JS thread does not stall the reader
+            session.receiveQueue.add(new ReceiveQueue.Frame(btId, ++sequence,
+                userDataRelayMessage.getSourceInterface().getID(), userDataRelayMessage.getData()));
+        }
+    }
+
+    /**
+     * Delivers received frame to JS as set by setReceiveMode, called by the dispatcher
+     * thread of the receive queue.
+     */
+    void dispatchReceived(ReceiveQueue.Frame frame) {
+        RelayEventBatcher batcher = receiveBatcher;
+        if (batcher != null) {
+            batcher.add(frame.address, new RelayEventBatcher.Frame(frame.sequence, frame.sourceInterface, frame.data));
+            return;
+        }
+        WritableMap map = Arguments.createMap();
+        map.putInt("sourceInterface", frame.sourceInterface);
+        map.putString("id", frame.address);
+        map.putInt("seq", frame.sequence);
+        RelayData.put(map, frame.data, receiveBase64);
+        sendEvent("XbeeReceivedUserDataRelay", map);
+    }
+
+    private class RelayBatchEmitter implements RelayEventBatcher.Emitter {
+        @Override
+        public void emitBatch(String address, List<RelayEventBatcher.Frame> frames) {
+            WritableMap map = Arguments.createMap();
+            map.putString("id", address);
+            WritableArray array = Arguments.createArray();
+            for (RelayEventBatcher.Frame frame : frames) {
+                WritableMap item = Arguments.createMap();
+                item.putInt("sourceInterface", frame.sourceInterface);
+                item.putInt("seq", frame.sequence);
+                RelayData.put(item, frame.data, receiveBase64);
+                array.pushMap(item);
+            }
+            map.putArray("frames", array);
+            sendEvent("XbeeReceivedUserDataRelayBatch", map);
+        }
+    }
+
+    interface TransferProgress {
+        void onProgress(WritableMap map);
+    }
+
+    /**
+     * Sends file from fileUrl to the device, blocks until the transfer is finished.
+     *
+     * @return error message or null on success
+     */
+    private String transferFile(final String address, String fileUrl, ReadableMap options, boolean cached,
+                                final TransferControl control, final TransferProgress progress) {
+        String checkpointKey = address + "\n" + fileUrl;
+        FileTransfer transfer = null;
+        if (control.isCancelled()) {
+            return "File transfer cancelled";
+        }
+        try {
+            boolean stage = options.hasKey("stage") && options.getBoolean("stage");
+            boolean cache = cached || stage || !options.hasKey("cache") || options.getBoolean("cache");
+            // the fan out has just validated the cached copy
+            long maxAge = cached ? Long.MAX_VALUE
+              : options.hasKey("cacheMaxAge") ? (long) options.getDouble("cacheMaxAge") : 0;
+            String sha256 = options.hasKey("sha256") ? options.getString("sha256") : null;
+            int prefetchBlocks = options.hasKey("prefetchBlocks")
+              ? options.getInt("prefetchBlocks") : FileSource.DEFAULT_PREFETCH_BLOCKS;
+            // url is opened only once, the stream is either prefetched or read from cached copy
+            FileSource.Opened source = fileSource.open(fileUrl, cache, stage, maxAge, sha256, prefetchBlocks);
+            final int lengthOfFile = (int) source.length;
+            InputStream input = source.stream;
+
+            boolean acknowledged = options.hasKey("acknowledged") && options.getBoolean("acknowledged");
+            int maxWindow = options.hasKey("windowSize")
+              ? options.getInt("windowSize") : FileTransfer.DEFAULT_MAX_WINDOW;
+            long resumeOffset = 0;
+            if (options.hasKey("offset")) {
+                resumeOffset = (long) options.getDouble("offset");
+            } else if (transferCheckpoints.containsKey(checkpointKey)) {
+                resumeOffset = transferCheckpoints.get(checkpointKey);
+            }
+
+            final DeviceConnection connection = registry.get(address);
+            if (registry.getConnectedDevice(address) == null) {
+                input.close();
+                return "Device is not connected";
+            }
+
+            int chunkSize = options.hasKey("chunkSize")
+              ? options.getInt("chunkSize") : FileTransfer.DEFAULT_CHUNK_SIZE;
+            final ChunkSizer sizer;
+            if (acknowledged) {
+                int mtu = options.hasKey("mtu") ? options.getInt("mtu") : ChunkSizer.DEFAULT_MTU;
+                int maxChunkSize = options.hasKey("maxChunkSize")
+                  ? options.getInt("maxChunkSize") : ChunkSizer.MAX_RELAY_DATA_SIZE;
+                if (!options.hasKey("chunkSize") && connection.getChunkSize() > 0) {
+                    chunkSize = connection.getChunkSize();
+                }
+                sizer = new ChunkSizer(mtu, FileTransfer.DATA_HEADER_SIZE, chunkSize, maxChunkSize);
+            } else {
+                sizer = ChunkSizer.fixed(chunkSize, FileTransfer.LEGACY_HEADER_SIZE);
+            }
+
+            transfer = new FileTransfer(new FileTransfer.FrameSender() {
+                @Override
+                public void sendFrame(byte[] frame) throws XBeeException, InterruptedException {
+                    while (true) {
+                        XbeeLink xbeeDevice = connection.getDevice();
+                        try {
+                            writeFrame(connection, xbeeDevice, SendScheduler.Priority.BULK, XBeeLocalInterface.SERIAL, frame);
+                            return;
+                        } catch (XBeeException e) {
+                            metrics.recordSendError(address);
+                            if (!reconnect(connection, xbeeDevice)) {
+                                throw e;
+                            }
+                        }
+                    }
+                }
+            }, input, lengthOfFile, sizer, acknowledged, maxWindow, resumeOffset);
+            if (acknowledged && options.hasKey("deltaBlockSize")) {
+                transfer.setDeltaBlockSize(options.getInt("deltaBlockSize"));
+            }
+            if (acknowledged && options.hasKey("compress")) {
+                transfer.setCompress(options.getBoolean("compress"));
+            }
+            transfer.setProgressListener(new FileTransfer.ProgressListener() {
+                @Override
+                public void onProgress(FileTransfer transfer) {
+                    long total = transfer.getBytesTransferred();
+                    WritableMap map = Arguments.createMap();
+                    map.putString("address", address);
+                    map.putString("transferId", control.id);
+                    map.putInt("chunks", (int)transfer.getChunks());
+                    map.putInt("bytes", (int)total);
+                    map.putInt("fileLength", lengthOfFile);
+                    map.putInt("progress", lengthOfFile > 0 ? (int) ((total * 100) / lengthOfFile) : 0);
+                    map.putDouble("speed", (double)(total) / Math.max(1, transfer.getElapsedMs()));
+                    map.putInt("chunkSize", transfer.getChunkSize());
+                    map.putDouble("bytesPerSecond", transfer.getBytesPerSecond());
+                    map.putInt("window", transfer.getWindow());
+                    map.putInt("retransmits", (int)transfer.getRetransmits());
+                    map.putInt("skippedBytes", (int)transfer.getSkippedBytes());
+                    map.putInt("wireBytes", (int)transfer.getWireBytes());
+                    map.putBoolean("isDone", total == lengthOfFile);
+                    progress.onProgress(map);
+                }
+            });
+            if (activeTransfers.putIfAbsent(address, transfer) != null) {
+                input.close();
+                return "File transfer already in progress";
+            }
+            control.attach(transfer);
+            try {
+                transfer.run();
+            } finally {
+                control.detach(transfer);
+                activeTransfers.remove(address);
+                metrics.recordRetransmits(address, transfer.getRetransmits());
+                input.close();
+                if (acknowledged) {
+                    connection.setChunkSize(sizer.getSize());
+                }
+            }
+            transferCheckpoints.remove(checkpointKey);
+            Log.i(LOG_TAG, "Total chunks: " + Long.toString(transfer.getChunks()) + " Total: " + Long.toString(transfer.getElapsedMs()) + " [ms] "
+                  + Long.toString(transfer.getBytesTransferred()) + " bytes, chunk size: " + Integer.toString(sizer.getSize())
+                  + " retransmits: " + Long.toString(transfer.getRetransmits()));
+        } catch (FileTransfer.CancelledException e) {
+            // device was told to drop the partial file, next transfer starts from the beginning
+            transferCheckpoints.remove(checkpointKey);
+            return e.getMessage();
+        } catch (XBeeException e) {
+            e.printStackTrace();
+            saveCheckpoint(checkpointKey, transfer);
+            return "Failed to send xbee relay message";
+        } catch (Exception e) {
+            Log.e(LOG_TAG, String.valueOf(e.getMessage()));
+            saveCheckpoint(checkpointKey, transfer);
+            return e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+
+        return null;
+    }
+
+    private void saveCheckpoint(String checkpointKey, FileTransfer transfer) {
+        if (transfer != null && transfer.isAcknowledged() && transfer.getBytesTransferred() > 0) {
+            transferCheckpoints.put(checkpointKey, transfer.getBytesTransferred());
+        }
+    }
+
+    /**
+     * Sends one file to many devices with limited concurrency and reports
+     * aggregate progress as XbeeFileFanOutProgress.
+     */
+    private class FileFanOut implements Runnable {
+        private static final long PROGRESS_INTERVAL_MS = 200;
+
+        private final String url;
+        private final List<String> addresses;
+        private final int concurrency;
+        private final ReadableMap options;
+        private final TransferControl control;
+        private final Promise promise;
+        private final Map<String, String> results = new ConcurrentHashMap<String, String>();
+        private final Map<String, Long> bytes = new ConcurrentHashMap<String, Long>();
+        private long fileLength;
+        private long lastProgress;
+
+        FileFanOut(String url, List<String> addresses, int concurrency, ReadableMap options,
+                   TransferControl control, Promise promise) {
+            this.url = url;
+            this.addresses = addresses;
+            this.concurrency = concurrency;
+            this.options = options;
+            this.control = control;
+            this.promise = promise;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // validate the cache once, every transfer reads the cached copy
+                fileLength = fileSource.fetch(url,
+                    options.hasKey("cacheMaxAge") ? (long) options.getDouble("cacheMaxAge") : 0,
+                    options.hasKey("sha256") ? options.getString("sha256") : null).length();
+            } catch (Exception e) {
+                settleTransfer(control, promise, e.getMessage() != null ? e.getMessage() : e.toString(), null);
+                return;
+            }
+            ExecutorService workers = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, addresses.size())));
+            for (final String address : addresses) {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        String error = transferFile(address, url, options, true, control, new TransferProgress() {
+                            @Override
+                            public void onProgress(WritableMap map) {
+                                sendEvent("XbeeFileSendProgress", map);
+                                bytes.put(address, (long) map.getInt("bytes"));
+                                publishAggregate(false);
+                            }
+                        });
+                        results.put(address, error != null ? error : "");
+                        publishAggregate(true);
+                    }
+                });
+            }
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+            }
+            settleTransfer(control, promise, null, resultsToMap(results));
+        }
+
+        private void publishAggregate(boolean force) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (!force && now - lastProgress < PROGRESS_INTERVAL_MS) {
+                    return;
+                }
+                lastProgress = now;
+            }
+            long total = 0;
+            for (Long value : bytes.values()) {
+                total += value;
+            }
+            int failed = 0;
+            for (String error : results.values()) {
+                if (!error.isEmpty()) {
+                    failed++;
+                }
+            }
+            long totalLength = fileLength * addresses.size();
+            WritableMap map = Arguments.createMap();
+            map.putString("url", url);
+            map.putInt("devices", addresses.size());
+            map.putInt("completed", results.size() - failed);
+            map.putInt("failed", failed);
+            map.putDouble("bytes", total);
+            map.putDouble("totalBytes", totalLength);
+            map.putInt("progress", totalLength > 0 ? (int) ((total * 100) / totalLength) : 0);
+            map.putBoolean("isDone", results.size() == addresses.size());
+            sendEvent("XbeeFileFanOutProgress", map);
+        }
+    }
+
+    /**
+     * Receives file which the device sends over user data relay, into path or the cache
+     * directory, or into memory when Base64 is requested. With resume an existing partial
+     * file is continued from its end. Settles the promise with length and path or data.
+     */
+    private class ReceiveFile implements Runnable {
+        private final String address;
+        private final ReadableMap options;
+        private final TransferControl control;
+        private final Promise promise;
+
+        ReceiveFile(String address, ReadableMap options, TransferControl control, Promise promise) {
+            this.address = address;
+            this.options = options;
+            this.control = control;
+            this.promise = promise;
+        }
+
+        @Override
+        public void run() {
+            boolean toMemory = options.hasKey("base64") && options.getBoolean("base64");
+            boolean resume = options.hasKey("resume") && options.getBoolean("resume");
+            File file = options.hasKey("path") ? new File(options.getString("path"))
+              : new File(new File(reactContext.getCacheDir(), "xbee-received"), control.id);
+            ByteArrayOutputStream memory = null;
+            OutputStream output = null;
+            FileReceiver receiver = null;
+            try {
+                final DeviceConnection connection = registry.get(address);
+                if (connection == null || registry.getConnectedDevice(address) == null) {
+                    settleTransfer(control, promise, "Device is not connected", null);
+                    return;
+                }
+                byte[] request = options.hasKey("request") ? Base64Codec.decode(options.getString("request")) : new byte[0];
+                int chunkSize = options.hasKey("maxChunkSize")
+                  ? options.getInt("maxChunkSize") : ChunkSizer.MAX_RELAY_DATA_SIZE - FileTransfer.DATA_HEADER_SIZE;
+                FileReceiver candidate = new FileReceiver(new FileTransfer.FrameSender() {
+                    @Override
+                    public void sendFrame(byte[] frame) throws XBeeException, InterruptedException {
+                        // acks pace the device, they must not wait behind chunks sent to it
+                        writeFrame(connection, connection.getDevice(), SendScheduler.Priority.CONTROL,
+                          XBeeLocalInterface.SERIAL, frame);
+                    }
+                }, request, chunkSize);
+                candidate.setProgressListener(new FileReceiver.ProgressListener() {
+                    @Override
+                    public void onProgress(FileReceiver receiver) {
+                        long total = receiver.getBytesReceived();
+                        long length = receiver.getLength();
+                        WritableMap map = Arguments.createMap();
+                        map.putString("address", address);
+                        map.putString("transferId", control.id);
+                        map.putDouble("bytes", total);
+                        map.putDouble("fileLength", length);
+                        map.putInt("progress", length > 0 ? (int) ((total * 100) / length) : 0);
+                        map.putDouble("bytesPerSecond", total * 1000.0 / Math.max(1, receiver.getElapsedMs()));
+                        map.putInt("nacks", (int) receiver.getNacks());
+                        map.putBoolean("isDone", total == length);
+                        sendEvent("XbeeFileReceiveProgress", map);
+                    }
+                });
+                // the device is taken before the output is opened, a running receive keeps its file
+                FileReceiver previous = activeReceives.putIfAbsent(address, candidate);
+                if (previous != null && !(previous.isComplete() && activeReceives.replace(address, previous, candidate))) {
+                    settleTransfer(control, promise, "File receive already in progress", null);
+                    return;
+                }
+                receiver = candidate;
+                long offset = 0;
+                CRC32 crc = new CRC32();
+                if (toMemory) {
+                    memory = new ByteArrayOutputStream();
+                    output = memory;
+                } else {
+                    if (resume && file.exists()) {
+                        offset = checksum(file, crc);
+                    }
+                    File dir = file.getParentFile();
+                    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                        throw new IOException("Cannot create directory " + dir);
+                    }
+                    output = new BufferedOutputStream(new FileOutputStream(file, offset > 0));
+                }
+                receiver.open(output, offset, crc);
+                control.attach(receiver);
+                long length;
+                try {
+                    length = receiver.run();
+                } finally {
+                    control.detach(receiver);
+                    output.close();
+                    output = null;
+                }
+                metrics.recordRetransmits(address, receiver.getNacks());
+                WritableMap result = Arguments.createMap();
+                result.putDouble("length", length);
+                if (toMemory) {
+                    result.putString("data", Base64Codec.encode(memory.toByteArray()));
+                } else {
+                    result.putString("path", file.getAbsolutePath());
+                }
+                settleTransfer(control, promise, null, result);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, String.valueOf(e.getMessage()));
+                if (receiver != null) {
+                    activeReceives.remove(address, receiver);
+                }
+                if (output != null) {
+                    try {
+                        output.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                // partial file is kept only when it can be resumed, it is not touched before the device is taken
+                if (!toMemory && receiver != null && (!resume || receiver.isCancelled())) {
+                    file.delete();
+                }
+                settleTransfer(control, promise, e.getMessage() != null ? e.getMessage() : e.toString(), null);
+            }
+        }
+
+        /**
+         * @return length of the file whose crc32 was computed
+         */
+        private long checksum(File file, CRC32 crc) throws IOException {
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[FileSource.PREFETCH_BLOCK_SIZE];
+                long total = 0;
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    total += count;
+                }
+                return total;
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Connects a simulated device per captured address, plays the capture and disconnects them.
+     */
+    private class ReplayCapture implements Runnable {
+        private final ReadableMap options;
+        private final Promise promise;
+
+        ReplayCapture(ReadableMap options, Promise promise) {
+            this.options = options;
+            this.promise = promise;
+        }
+
+        @Override
+        public void run() {
+            final Map<String, DeviceConnection> connections = new HashMap<String, DeviceConnection>();
+            try {
+                List<FrameCapture.Frame> frames = FrameCapture.read(new File(options.getString("path")));
+                SimulatedXbeeLink.Config config = options.hasKey("simulate")
+                  ? SimulatedXbeeLink.Config.fromMap(options.getMap("simulate")) : new SimulatedXbeeLink.Config();
+                for (FrameCapture.Frame frame : frames) {
+                    if (!connections.containsKey(frame.address)) {
+                        connections.put(frame.address, connect(REPLAY_PREFIX + frame.address, config));
+                    }
+                }
+                CaptureReplay.Result result = new CaptureReplay(frames,
+                  options.hasKey("speed") ? options.getDouble("speed") : 1).run(new CaptureReplay.Target() {
+                    @Override
+                    public void send(String address, boolean bulk, int iface, byte[] data)
+                            throws XBeeException, InterruptedException {
+                        DeviceConnection connection = connections.get(address);
+                        writeFrame(connection, connection.getDevice(),
+                          bulk ? SendScheduler.Priority.BULK : SendScheduler.Priority.CONTROL,
+                          XBeeLocalInterface.get(iface), data);
+                    }
+
+                    @Override
+                    public void receive(String address, int iface, byte[] data) {
+                        ((SimulatedXbeeLink) connections.get(address).getDevice())
+                          .deliver(XBeeLocalInterface.get(iface), data);
+                    }
+                });
+                WritableMap map = Arguments.createMap();
+                map.putDouble("frames", result.frames);
+                map.putDouble("bytesSent", result.bytesSent);
+                map.putDouble("bytesReceived", result.bytesReceived);
+                map.putDouble("capturedMs", result.capturedMs);
+                map.putDouble("elapsedMs", result.elapsedMs);
+                map.putDouble("maxLagMs", result.maxLagMs);
+                promise.resolve(map);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, String.valueOf(e.getMessage()));
+                promise.reject("E_REPLAY", e.getMessage() != null ? e.getMessage() : e.toString());
+            } finally {
+                for (DeviceConnection connection : connections.values()) {
+                    if (registry.transition(connection, ConnectionState.DISCONNECTING, ConnectionState.CONNECTED)) {
+                        connection.getDevice().removeUserDataRelayListener(connection.getRelayListener());
+                        connection.getDevice().close();
+                        registry.transition(connection, ConnectionState.CLOSED, ConnectionState.DISCONNECTING);
+                    }
+                }
+            }
+        }
+
+        private DeviceConnection connect(final String address, final SimulatedXbeeLink.Config config)
+                throws IOException, XBeeException {
+            DeviceConnection connection = registry.beginConnect(address, null, ReconnectPolicy.fromOptions(null),
+              new XbeeLink.Factory() {
+                  @Override
+                  public XbeeLink create(String address, String password) {
+                      // frames of the device come from the capture, nothing answers on its own
+                      return new SimulatedXbeeLink(config, new SimulatedXbeeLink.Endpoint() {
+                          @Override
+                          public void onUserDataRelay(SimulatedXbeeLink link, XBeeLocalInterface sourceInterface,
+                                                      byte[] data) {
+                          }
+                      });
+                  }
+              }, new SendScheduler(SendScheduler.DEFAULT_CONTROL_BURST, 0));
+            if (connection == null) {
+                throw new IOException("Device " + address + " is already connected");
+            }
+            XbeeLink link = connection.linkFactory.create(address, null);
+            link.open();
+            UserDataRelayListener relayListener = new UserDataRelayListener(address);
+            link.addUserDataRelayListener(relayListener);
+            connection.attach(link, relayListener);
+            registry.transition(connection, ConnectionState.CONNECTED, ConnectionState.CONNECTING);
+            return connection;
+        }
+    }
+
+    private class DownloadFileFromURL extends AsyncTask<String, ReadableMap, String> {
+
+        String address;
+        ReadableMap options;
+        TransferControl control;
+        Promise promise;
+
+        public DownloadFileFromURL(String address, ReadableMap options, TransferControl control, Promise promise) {
+          this.address = address;
+          this.options = options;
+          this.control = control;
+          this.promise = promise;
+        }
+
+        /**
+         * Before starting background thread Show Progress Bar Dialog
+         * */
+        @Override
+        protected void onPreExecute() {
+            super.onPreExecute();
+        }
+
+        /**
+         * Downloading file in background thread and send it to interface
+         * */
+        @Override
+        protected String doInBackground(String... f_url) {
+            return transferFile(address, f_url[0], options, false, control, new TransferProgress() {
+                @Override
+                public void onProgress(WritableMap map) {
+                    publishProgress(map);
+                }
+            });
         }
 
         protected void onProgressUpdate(ReadableMap... map) {
@@ -430,7 +2072,7 @@ public class XbeeBleModule extends ReactContextBaseJavaModule {
         @Override
         protected void onPostExecute(String result) {
           super.onPostExecute(result);
-          callback.invoke();
+          settleTransfer(control, promise, result, null);
         }
     }
 }
@@ -0,0 +1,69 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+import com.digi.xbee.api.models.XBeeLocalInterface;
+
+/**
+ * Access to one XBee device, implemented over BLE by {@link BleXbeeLink} and
+ * without any radio by {@link SimulatedXbeeLink}. Sends do not keep the data array
+ * after they return, the caller may reuse it.
+ */
+interface XbeeLink {
+    interface Factory {
+        XbeeLink create(String address, String password);
+    }
+
+    /**
+     * Gets transmit status of frames sent by {@link #sendTransmitAsync}.
+     */
+    interface TransmitStatusListener {
+        void transmitStatusReceived(int frameId, int status, int retries);
+    }
+
+    void open() throws XBeeException;
+
+    void close();
+
+    void addUserDataRelayListener(IUserDataRelayReceiveListener listener);
+
+    void removeUserDataRelayListener(IUserDataRelayReceiveListener listener);
+
+    void sendUserDataRelay(XBeeLocalInterface destInterface, byte[] data) throws XBeeException;
+
+    /**
+     * Sends the frame as API packet without waiting for the transmit of the device.
+     */
+    void sendUserDataRelayAsync(XBeeLocalInterface destInterface, byte[] data) throws XBeeException;
+
+    void setTransmitStatusListener(TransmitStatusListener listener);
+
+    /**
+     * @return frame id for the next API frame which expects a response, never 0
+     */
+    int nextFrameId();
+
+    /**
+     * Sends data in a transmit request to the node with 64-bit address in hex, the device
+     * routes it through its network. Transmit status arrives with frameId.
+     */
+    void sendTransmitAsync(int frameId, String destination, byte[] data, int radius, int options)
+        throws XBeeException;
+
+    /**
+     * Gets responses of commands sent by {@link #sendAtCommandAsync}.
+     */
+    interface AtResponseListener {
+        void atResponseReceived(int frameId, String command, int status, byte[] value);
+    }
+
+    void setAtResponseListener(AtResponseListener listener);
+
+    /**
+     * Sends AT command to the device, value null reads the parameter. Queued commands
+     * set the value without applying it until AC. Response arrives with frameId.
+     */
+    void sendAtCommandAsync(int frameId, String command, byte[] value, boolean queued) throws XBeeException;
+
+    void requestConnectionPriority(int priority);
+}
@@ -0,0 +1,71 @@
+package com.reactnativexbeeble;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Foreground service of the background mode. While it runs the process is kept alive with
+ * the device connections and transfers of {@link XbeeSession}, they continue when the app
+ * is in background and when JS reloads. Started and stopped by the module.
+ */
+public class XbeeService extends Service {
+    static final String EXTRA_TITLE = "title";
+    static final String EXTRA_TEXT = "text";
+
+    private static final String CHANNEL_ID = "xbee-ble";
+    private static final int NOTIFICATION_ID = 5391;
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String title = intent != null ? intent.getStringExtra(EXTRA_TITLE) : null;
+        String text = intent != null ? intent.getStringExtra(EXTRA_TEXT) : null;
+        startForeground(NOTIFICATION_ID, buildNotification(title != null ? title : "XBee",
+            text != null ? text : "Connected to devices"));
+        XbeeSession.setBackground(true);
+        // without JS there is nobody to restore the connections after the process is killed
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        XbeeSession.setBackground(false);
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private Notification buildNotification(String title, String text) {
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "XBee devices",
+                NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        builder.setContentTitle(title)
+            .setContentText(text)
+            .setSmallIcon(getApplicationInfo().icon)
+            .setOngoing(true);
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        if (launch != null) {
+            builder.setContentIntent(PendingIntent.getActivity(this, 0, launch,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0));
+        }
+        return builder.build();
+    }
+}
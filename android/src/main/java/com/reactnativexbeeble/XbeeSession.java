@@ -0,0 +1,187 @@
+package com.reactnativexbeeble;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Connections and transfers with their executors, shared by all instances of the module
+ * in the process. The module of the current JS runtime attaches to the session and gets
+ * its events. Without background mode the session ends with the module, with background
+ * mode {@link XbeeService} keeps it running through JS reloads until the mode is stopped.
+ */
+final class XbeeSession {
+    private static XbeeSession current;
+
+    final DeviceRegistry registry;
+    final ConcurrentHashMap<String, FileTransfer> activeTransfers = new ConcurrentHashMap<String, FileTransfer>();
+    final ConcurrentHashMap<String, FileReceiver> activeReceives = new ConcurrentHashMap<String, FileReceiver>();
+    final Map<String, Long> transferCheckpoints = new ConcurrentHashMap<String, Long>();
+    final ConcurrentHashMap<String, TransferControl> transferControls = new ConcurrentHashMap<String, TransferControl>();
+    final FileSource fileSource;
+    final DeviceExecutor deviceExecutor = new DeviceExecutor(DeviceExecutor.DEFAULT_POOL_SIZE);
+    final ExecutorService transferExecutor = Executors.newCachedThreadPool();
+    final Metrics metrics = new Metrics();
+    final RelayRequests relayRequests = new RelayRequests();
+    final TransmitRequests transmitRequests = new TransmitRequests(TransmitRequests.DEFAULT_MAX_IN_FLIGHT);
+    final FramePool relayPool = new FramePool(FramePool.DEFAULT_MAX_PER_LENGTH);
+    final ParameterCache parameterCache = new ParameterCache();
+    final ReceiveQueue receiveQueue;
+
+    volatile FrameCapture capture;
+
+    private volatile XbeeBleModule module;
+    private boolean background;
+
+    private XbeeSession(Context context) {
+        fileSource = new FileSource(new File(context.getCacheDir(), "xbee-files"), FileSource.DEFAULT_CACHE_SIZE);
+        receiveQueue = new ReceiveQueue(new ReceiveQueue.Dispatcher() {
+            @Override
+            public void dispatch(ReceiveQueue.Frame frame) {
+                XbeeBleModule attached = module;
+                if (attached != null) {
+                    attached.dispatchReceived(frame);
+                }
+            }
+
+            @Override
+            public void dropped(ReceiveQueue.Frame frame) {
+                metrics.recordReceiveDropped(frame.address);
+            }
+        }, new File(context.getCacheDir(), "xbee-receive.spill"));
+        registry = new DeviceRegistry(new DeviceRegistry.StateListener() {
+            @Override
+            public void onStateChanged(DeviceConnection connection, ConnectionState previous, ConnectionState state) {
+                Log.d(XbeeBleModule.LOG_TAG, connection.address + ": " + previous.getName() + " -> " + state.getName());
+                WritableMap map = Arguments.createMap();
+                map.putString("id", connection.address);
+                map.putString("state", state.getName());
+                map.putString("previousState", previous.getName());
+                emit("XbeeConnectionStateChanged", map);
+                if (state == ConnectionState.CLOSED || state == ConnectionState.FAILED) {
+                    relayRequests.failAll(connection.address, "Device disconnected");
+                    transmitRequests.failAll(connection.address, "Device disconnected");
+                    // the device may be reconfigured by someone else before it comes back
+                    parameterCache.invalidate(connection.address);
+                    FileReceiver receiver = activeReceives.get(connection.address);
+                    if (receiver != null && receiver.isComplete()) {
+                        activeReceives.remove(connection.address, receiver);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Attaches module to the running session or starts a new one.
+     */
+    static synchronized XbeeSession attach(XbeeBleModule module, Context context) {
+        if (current == null) {
+            current = new XbeeSession(context.getApplicationContext());
+        }
+        current.module = module;
+        return current;
+    }
+
+    /**
+     * Detaches module, the session ends unless background mode is on.
+     */
+    static synchronized void detach(XbeeBleModule module) {
+        if (current == null || current.module != module) {
+            return;
+        }
+        current.module = null;
+        if (!current.background) {
+            current.shutdown();
+            current = null;
+        }
+    }
+
+    /**
+     * Called by {@link XbeeService}, a session without module ends with background mode.
+     */
+    static synchronized void setBackground(boolean background) {
+        if (current == null) {
+            return;
+        }
+        current.background = background;
+        if (!background && current.module == null) {
+            current.shutdown();
+            current = null;
+        }
+    }
+
+    boolean isBackground() {
+        synchronized (XbeeSession.class) {
+            return background;
+        }
+    }
+
+    /**
+     * Sends event to JS of the attached module, events are dropped while no module is attached.
+     */
+    void emit(String eventName, WritableMap params) {
+        XbeeBleModule attached = module;
+        if (attached != null) {
+            metrics.recordBridgeEvent(eventName);
+            attached.emit(eventName, params);
+        }
+    }
+
+    /**
+     * @return module of the current JS runtime, null while none is attached
+     */
+    XbeeBleModule getModule() {
+        return module;
+    }
+
+    /**
+     * Closes links of all connections, the next session starts with an empty registry and
+     * would not know about them.
+     */
+    private void closeConnections() {
+        for (DeviceConnection connection : registry.getAll()) {
+            if (!registry.transition(connection, ConnectionState.CLOSED, ConnectionState.CONNECTING,
+                    ConnectionState.CONNECTED, ConnectionState.RECONNECTING, ConnectionState.DISCONNECTING)) {
+                continue;
+            }
+            // a connect in progress closes its link when it finds the connection closed
+            XbeeLink device = connection.getDevice();
+            if (device != null) {
+                device.removeUserDataRelayListener(connection.getRelayListener());
+                device.setTransmitStatusListener(null);
+                device.setAtResponseListener(null);
+                device.close();
+            }
+        }
+    }
+
+    private void shutdown() {
+        for (TransferControl control : transferControls.values()) {
+            control.cancel();
+        }
+        deviceExecutor.shutdown();
+        transferExecutor.shutdownNow();
+        closeConnections();
+        relayRequests.shutdown();
+        transmitRequests.shutdown();
+        receiveQueue.shutdown();
+        FrameCapture running = capture;
+        if (running != null) {
+            try {
+                running.stop();
+            } catch (IOException e) {
+                Log.d(XbeeBleModule.LOG_TAG, "Failed to finish capture: " + e.getMessage());
+            }
+        }
+    }
+}
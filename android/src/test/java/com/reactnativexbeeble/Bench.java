@@ -0,0 +1,123 @@
+package com.reactnativexbeeble;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal JMH style harness for plain JVM tests: a few warmup iterations followed
+ * by measured iterations of fixed duration. Iteration counts can be changed with
+ * system properties xbee.bench.warmup, xbee.bench.iterations and xbee.bench.iterationMs.
+ * Bytes allocated per operation by the benchmark thread are reported when the JVM can
+ * measure them.
+ */
+final class Bench {
+    interface Body {
+        Object run() throws Exception;
+    }
+
+    static final int WARMUP_ITERATIONS = Integer.getInteger("xbee.bench.warmup", 3);
+    static final int ITERATIONS = Integer.getInteger("xbee.bench.iterations", 5);
+    static final long ITERATION_MS = Long.getLong("xbee.bench.iterationMs", 200);
+
+    // results are consumed here so that the JIT can not drop the measured code
+    static volatile int sink;
+
+    static class Result {
+        final String name;
+        final double nanosPerOp;
+        final double errorNanos;
+        final long bytesPerOp;
+        // -1 when not measured
+        final double allocatedPerOp;
+
+        Result(String name, double nanosPerOp, double errorNanos, long bytesPerOp, double allocatedPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.errorNanos = errorNanos;
+            this.bytesPerOp = bytesPerOp;
+            this.allocatedPerOp = allocatedPerOp;
+        }
+
+        double megabytesPerSecond() {
+            return bytesPerOp * 1000.0 / nanosPerOp;
+        }
+
+        @Override
+        public String toString() {
+            String line = String.format(Locale.ROOT, "%-32s %12.1f +- %8.1f ns/op", name, nanosPerOp, errorNanos);
+            if (bytesPerOp > 0) {
+                line += String.format(Locale.ROOT, " %10.2f MB/s", megabytesPerSecond());
+            }
+            if (allocatedPerOp >= 0) {
+                line += String.format(Locale.ROOT, " %10.0f B/op allocated", allocatedPerOp);
+            }
+            return line;
+        }
+    }
+
+    private Bench() {
+    }
+
+    /**
+     * @param bytesPerOp bytes processed by one call of body, used for throughput, 0 when not relevant
+     */
+    static Result run(String name, long bytesPerOp, Body body) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(body, new long[1]);
+        }
+        double[] samples = new double[ITERATIONS];
+        double sum = 0;
+        long[] ops = new long[1];
+        long totalOps = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            samples[i] = iteration(body, ops);
+            sum += samples[i];
+            totalOps += ops[0];
+        }
+        long allocatedAfter = allocatedBytes();
+        double mean = sum / ITERATIONS;
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        double error = ITERATIONS > 1 ? Math.sqrt(variance / (ITERATIONS - 1)) : 0;
+        double allocatedPerOp = allocatedBefore >= 0 ? (double) (allocatedAfter - allocatedBefore) / totalOps : -1;
+        Result result = new Result(name, mean, error, bytesPerOp, allocatedPerOp);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, -1 when the JVM does not tell
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * @param ops gets the number of operations run
+     * @return average nanos per operation
+     */
+    private static double iteration(Body body, long[] ops) throws Exception {
+        long deadline = System.nanoTime() + ITERATION_MS * 1000000L;
+        long start = System.nanoTime();
+        long count = 0;
+        long now;
+        int consumed = 0;
+        do {
+            Object value = body.run();
+            consumed += value != null ? value.hashCode() : 0;
+            count++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        sink = consumed;
+        ops[0] = count;
+        return (double) (now - start) / count;
+    }
+}
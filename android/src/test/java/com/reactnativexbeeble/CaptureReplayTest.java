@@ -0,0 +1,77 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+import com.digi.xbee.api.models.UserDataRelayMessage;
+import com.digi.xbee.api.models.XBeeLocalInterface;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Captures written by {@link FrameCapture} and replayed against {@link SimulatedXbeeLink}.
+ */
+public class CaptureReplayTest {
+    @Test(timeout = 60000)
+    public void replayCapturedFrames() throws Exception {
+        File file = File.createTempFile("capture", ".xbcp");
+        try {
+            FrameCapture capture = new FrameCapture(file, 64 * 1024, 10);
+            Random random = new Random(7);
+            int count = 500;
+            for (int i = 0; i < count; i++) {
+                byte[] data = new byte[1 + random.nextInt(TestLinks.FRAME_SIZE)];
+                random.nextBytes(data);
+                capture.record(i % 3 == 0 ? "device-a" : "device-b",
+                    i % 5 == 0 ? FrameCapture.RECEIVED : FrameCapture.SENT_BULK, 0, data);
+                if (i % 50 == 0) {
+                    Thread.sleep(2);
+                }
+            }
+            capture.stop();
+            assertEquals(count, capture.getFrames() + capture.getDropped());
+
+            List<FrameCapture.Frame> frames = FrameCapture.read(file);
+            assertEquals(capture.getFrames(), frames.size());
+            SimulatedXbeeLink.Config config = new SimulatedXbeeLink.Config();
+            config.mtu = 247;
+            config.packetsPerSecond = 800;
+            final SimulatedXbeeLink link = new SimulatedXbeeLink(config, new SimulatedXbeeLink.FileSink());
+            final AtomicInteger received = new AtomicInteger();
+            link.addUserDataRelayListener(new IUserDataRelayReceiveListener() {
+                @Override
+                public void userDataRelayReceived(UserDataRelayMessage message) {
+                    received.incrementAndGet();
+                }
+            });
+            link.open();
+            try {
+                CaptureReplay.Result result = new CaptureReplay(frames, 0).run(new CaptureReplay.Target() {
+                    @Override
+                    public void send(String address, boolean bulk, int iface, byte[] data) throws XBeeException {
+                        link.sendUserDataRelayAsync(XBeeLocalInterface.SERIAL, data);
+                    }
+
+                    @Override
+                    public void receive(String address, int iface, byte[] data) {
+                        link.deliver(XBeeLocalInterface.SERIAL, data);
+                    }
+                });
+                System.out.println(String.format(java.util.Locale.ROOT,
+                    "captureReplay %d frames, %d bytes sent in %d ms, captured in %d ms",
+                    result.frames, result.bytesSent, result.elapsedMs, result.capturedMs));
+                assertEquals(frames.size(), result.frames);
+            } finally {
+                link.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+import com.digi.xbee.api.models.UserDataRelayMessage;
+import com.digi.xbee.api.models.XBeeLocalInterface;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Receives from {@link SimulatedXbeeLink} which sends its image.
+ */
+public class FileReceiverTest {
+    @Test(timeout = 60000)
+    public void receiveOverLossyLink() throws Exception {
+        byte[] file = TestLinks.randomBytes(TestLinks.FILE_SIZE / 2);
+        SimulatedXbeeLink.Config config = TestLinks.lossyConfig();
+        SimulatedXbeeLink.FileSink sink = new SimulatedXbeeLink.FileSink();
+        sink.setImage(file);
+        final SimulatedXbeeLink link = new SimulatedXbeeLink(config, sink);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final FileReceiver receiver = new FileReceiver(new FileTransfer.FrameSender() {
+            @Override
+            public void sendFrame(byte[] frame) throws XBeeException {
+                link.sendUserDataRelayAsync(XBeeLocalInterface.SERIAL, frame);
+            }
+        }, output, 0, new CRC32(), new byte[0], ChunkSizer.MAX_RELAY_DATA_SIZE - FileTransfer.DATA_HEADER_SIZE);
+        link.addUserDataRelayListener(new IUserDataRelayReceiveListener() {
+            @Override
+            public void userDataRelayReceived(UserDataRelayMessage message) {
+                receiver.onFrameReceived(message.getData());
+            }
+        });
+        link.open();
+        try {
+            assertEquals(file.length, receiver.run());
+            System.out.println(String.format(java.util.Locale.ROOT,
+                "fileReceiveOverLossyLink %d bytes in %d ms, %d nacks, %d frames lost",
+                file.length, receiver.getElapsedMs(), receiver.getNacks(), link.getFramesLost()));
+            assertArrayEquals(file, output.toByteArray());
+            // the output is released, a repeated end frame is still answered
+            CRC32 crc = new CRC32();
+            crc.update(file);
+            byte[] end = new byte[9];
+            end[0] = FileTransfer.FRAME_END;
+            FileTransfer.writeInt(end, 1, file.length);
+            FileTransfer.writeInt(end, 5, crc.getValue());
+            assertTrue(receiver.onFrameReceived(end));
+        } finally {
+            link.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.reactnativexbeeble;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cache of {@link FileSource} in front of a local HTTP server which sends its file in two halves.
+ */
+public class FileSourceTest {
+    private final byte[] file = TestLinks.randomBytes(TestLinks.FILE_SIZE);
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile CountDownLatch secondHalf = new CountDownLatch(0);
+    private HttpServer server;
+    private File cacheDir;
+    private String url;
+
+    private void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/image.bin", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(200, file.length);
+                OutputStream body = exchange.getResponseBody();
+                try {
+                    body.write(file, 0, file.length / 2);
+                    body.flush();
+                    // without overlap open would wait here for the test to read
+                    secondHalf.await();
+                    body.write(file, file.length / 2, file.length - file.length / 2);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    body.close();
+                }
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/image.bin";
+        cacheDir = File.createTempFile("files", "");
+        cacheDir.delete();
+    }
+
+    private void stop() {
+        server.stop(0);
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File cached : files) {
+                cached.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test(timeout = 30000)
+    public void missIsStreamedIntoCache() throws Exception {
+        start();
+        try {
+            missIsStreamedIntoCache(new FileSource(cacheDir, FileSource.DEFAULT_CACHE_SIZE));
+        } finally {
+            stop();
+        }
+    }
+
+    private void missIsStreamedIntoCache(FileSource source) throws Exception {
+        secondHalf = new CountDownLatch(1);
+        FileSource.Opened opened = source.open(url, true, false, Long.MAX_VALUE, null, FileSource.DEFAULT_PREFETCH_BLOCKS);
+        assertEquals(file.length, opened.length);
+        // the first half is readable while the server holds back the rest
+        byte[] first = new byte[FileSource.PREFETCH_BLOCK_SIZE];
+        int count = 0;
+        while (count < first.length) {
+            count += opened.stream.read(first, count, first.length - count);
+        }
+        secondHalf.countDown();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        received.write(first);
+        received.write(readAll(opened.stream));
+        opened.stream.close();
+        assertArrayEquals(file, received.toByteArray());
+
+        FileSource.Opened cached = source.open(url, true, false, Long.MAX_VALUE, null, FileSource.DEFAULT_PREFETCH_BLOCKS);
+        try {
+            assertArrayEquals(file, readAll(cached.stream));
+        } finally {
+            cached.stream.close();
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test(timeout = 30000)
+    public void unfinishedDownloadIsNotCached() throws Exception {
+        start();
+        try {
+            unfinishedDownloadIsNotCached(new FileSource(cacheDir, FileSource.DEFAULT_CACHE_SIZE));
+        } finally {
+            stop();
+        }
+    }
+
+    private void unfinishedDownloadIsNotCached(FileSource source) throws Exception {
+        secondHalf = new CountDownLatch(1);
+        FileSource.Opened opened = source.open(url, true, false, Long.MAX_VALUE, null, FileSource.DEFAULT_PREFETCH_BLOCKS);
+        assertTrue(opened.stream.read() >= 0);
+        // cancelled transfer
+        opened.stream.close();
+        secondHalf.countDown();
+        String[] left = cacheDir.list();
+        assertEquals(0, left == null ? 0 : left.length);
+
+        FileSource.Opened again = source.open(url, true, false, Long.MAX_VALUE, null, FileSource.DEFAULT_PREFETCH_BLOCKS);
+        try {
+            assertArrayEquals(file, readAll(again.stream));
+        } finally {
+            again.stream.close();
+        }
+        assertEquals(2, requests.get());
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[FileSource.PREFETCH_BLOCK_SIZE];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,90 @@
+package com.reactnativexbeeble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Transfers over {@link SimulatedXbeeLink} checked against the image the device assembled.
+ */
+public class FileTransferTest {
+    @Test(timeout = 60000)
+    public void transferOverLossyLink() throws Exception {
+        byte[] file = TestLinks.randomBytes(TestLinks.FILE_SIZE / 2);
+        SimulatedXbeeLink.Config config = TestLinks.lossyConfig();
+        SimulatedXbeeLink.FileSink sink = new SimulatedXbeeLink.FileSink();
+        SimulatedXbeeLink link = new SimulatedXbeeLink(config, sink);
+        link.open();
+        try {
+            FileTransfer transfer = TestLinks.transfer(link, file, true);
+            System.out.println(String.format(java.util.Locale.ROOT,
+                "fileTransferOverLossyLink %d bytes in %d ms, %d retransmits of %d chunks, %d frames lost",
+                file.length, transfer.getElapsedMs(), transfer.getRetransmits(), transfer.getChunks(),
+                link.getFramesLost()));
+            assertEquals(1, sink.getCompleted());
+            assertEquals(file.length, transfer.getBytesTransferred());
+        } finally {
+            link.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void deltaTransferSkipsUnchangedBlocks() throws Exception {
+        byte[] file = TestLinks.randomBytes(TestLinks.FILE_SIZE);
+        SimulatedXbeeLink.Config config = new SimulatedXbeeLink.Config();
+        config.latencyMs = 5;
+        config.packetsPerSecond = 800;
+        SimulatedXbeeLink.FileSink sink = new SimulatedXbeeLink.FileSink();
+        SimulatedXbeeLink link = new SimulatedXbeeLink(config, sink);
+        link.open();
+        try {
+            FileTransfer full = TestLinks.transfer(link, file, true, 4096, false);
+            assertEquals(0, full.getSkippedBytes());
+            file[100] ^= 1;
+            file[TestLinks.FILE_SIZE / 2] ^= 1;
+            FileTransfer delta = TestLinks.transfer(link, file, true, 4096, false);
+            System.out.println(String.format(java.util.Locale.ROOT,
+                "deltaTransferSkipsUnchangedBlocks full %d ms, delta %d ms with %d of %d bytes skipped",
+                full.getElapsedMs(), delta.getElapsedMs(), delta.getSkippedBytes(), file.length));
+            assertEquals(2, sink.getCompleted());
+            assertEquals(file.length - 2 * 4096, delta.getSkippedBytes());
+            assertArrayEquals(file, sink.getImage());
+        } finally {
+            link.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void compressedTransfer() throws Exception {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(42);
+        while (text.length() < TestLinks.FILE_SIZE) {
+            text.append("sensor").append(random.nextInt(16)).append(" = ").append(random.nextInt(1000)).append('\n');
+        }
+        byte[] config = text.toString().getBytes("UTF-8");
+        byte[] noise = TestLinks.randomBytes(TestLinks.FILE_SIZE / 4);
+        SimulatedXbeeLink.FileSink sink = new SimulatedXbeeLink.FileSink();
+        SimulatedXbeeLink link = new SimulatedXbeeLink(new SimulatedXbeeLink.Config(), sink);
+        link.open();
+        try {
+            FileTransfer plain = TestLinks.transfer(link, config, true);
+            FileTransfer compressed = TestLinks.transfer(link, config, true, 0, true);
+            assertArrayEquals(config, sink.getImage());
+            FileTransfer incompressible = TestLinks.transfer(link, noise, true, 0, true);
+            assertArrayEquals(noise, sink.getImage());
+            System.out.println(String.format(java.util.Locale.ROOT,
+                "compressedTransfer text %d bytes, %d on wire plain, %d compressed; random %d bytes, %d on wire",
+                config.length, plain.getWireBytes(), compressed.getWireBytes(),
+                noise.length, incompressible.getWireBytes()));
+            assertTrue(compressed.getWireBytes() * 2 < plain.getWireBytes());
+            // bypassed chunks go as plain 'F' frames
+            assertTrue(incompressible.getWireBytes() < noise.length * 11 / 10);
+        } finally {
+            link.close();
+        }
+    }
+}
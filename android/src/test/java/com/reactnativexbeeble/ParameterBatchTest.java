@@ -0,0 +1,70 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AT command batches against the parameters of {@link SimulatedXbeeLink}.
+ */
+public class ParameterBatchTest {
+    @Test(timeout = 60000)
+    public void parameterBatch() throws Exception {
+        SimulatedXbeeLink.Config config = new SimulatedXbeeLink.Config();
+        config.latencyMs = 10;
+        final SimulatedXbeeLink link = new SimulatedXbeeLink(config, new SimulatedXbeeLink.FileSink());
+        link.open();
+        try {
+            ParameterBatch.Sender sender = new ParameterBatch.Sender() {
+                @Override
+                public void send(int frameId, String command, byte[] value, boolean queued) throws XBeeException {
+                    link.sendAtCommandAsync(frameId, command, value, queued);
+                }
+            };
+            String[] parameters = {"VR", "HV", "NI", "ID", "DB"};
+            long start = System.nanoTime();
+            for (String parameter : parameters) {
+                List<ParameterBatch.Command> single = new ArrayList<ParameterBatch.Command>();
+                single.add(new ParameterBatch.Command(parameter, null));
+                new ParameterBatch(single, false, false, 1, ParameterBatch.DEFAULT_TIMEOUT_MS).run(link, sender);
+            }
+            long sequentialMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            List<ParameterBatch.Command> reads = new ArrayList<ParameterBatch.Command>();
+            for (String parameter : parameters) {
+                reads.add(new ParameterBatch.Command(parameter, null));
+            }
+            start = System.nanoTime();
+            new ParameterBatch(reads, false, false, ParameterBatch.DEFAULT_MAX_IN_FLIGHT,
+                ParameterBatch.DEFAULT_TIMEOUT_MS).run(link, sender);
+            long pipelinedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println(String.format(java.util.Locale.ROOT,
+                "parameterBatch %d reads sequential %d ms, pipelined %d ms", parameters.length, sequentialMs,
+                pipelinedMs));
+            for (ParameterBatch.Command command : reads) {
+                assertTrue(command.parameter, command.isOk());
+            }
+            // queued values take effect only with AC at the end of the batch
+            List<ParameterBatch.Command> sets = new ArrayList<ParameterBatch.Command>();
+            sets.add(new ParameterBatch.Command("NI", "RENAMED".getBytes()));
+            sets.add(new ParameterBatch.Command("ID", new byte[]{0x12, 0x34}));
+            new ParameterBatch(sets, true, true, ParameterBatch.DEFAULT_MAX_IN_FLIGHT,
+                ParameterBatch.DEFAULT_TIMEOUT_MS).run(link, sender);
+            List<ParameterBatch.Command> check = new ArrayList<ParameterBatch.Command>();
+            check.add(new ParameterBatch.Command("NI", null));
+            check.add(new ParameterBatch.Command("XX", null));
+            new ParameterBatch(check, false, false, ParameterBatch.DEFAULT_MAX_IN_FLIGHT,
+                ParameterBatch.DEFAULT_TIMEOUT_MS).run(link, sender);
+            assertEquals("RENAMED", new String(check.get(0).response));
+            assertEquals(SimulatedXbeeLink.STATUS_INVALID_COMMAND, check.get(1).status);
+        } finally {
+            link.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.reactnativexbeeble;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Overflow policies of {@link ReceiveQueue} under burst load with a slow dispatcher.
+ */
+public class ReceiveQueueTest {
+    private static final int BURST = 200;
+    // below the time of a disk write or a bridge event
+    private static final long MAX_ADD_P99_US = 50;
+
+    @Test(timeout = 60000)
+    public void burstWithSlowDispatcher() throws Exception {
+        File spill = File.createTempFile("receive", ".spill");
+        try {
+            for (ReceiveQueue.Policy policy : ReceiveQueue.Policy.values()) {
+                final List<Integer> sequences = java.util.Collections.synchronizedList(new ArrayList<Integer>());
+                final AtomicInteger dropped = new AtomicInteger();
+                // JS thread which takes 20 us per frame
+                ReceiveQueue queue = new ReceiveQueue(new ReceiveQueue.Dispatcher() {
+                    @Override
+                    public void dispatch(ReceiveQueue.Frame frame) {
+                        sequences.add(frame.sequence);
+                        long until = System.nanoTime() + 20000;
+                        while (System.nanoTime() < until) {
+                        }
+                    }
+
+                    @Override
+                    public void dropped(ReceiveQueue.Frame frame) {
+                        dropped.incrementAndGet();
+                    }
+                }, spill);
+                queue.configure(policy, 256, 1, ReceiveQueue.DEFAULT_MAX_SPILL_BYTES);
+                try {
+                    int count = 20000;
+                    byte[] frame = TestLinks.randomBytes(TestLinks.FRAME_SIZE);
+                    long[] addNanos = new long[count];
+                    long start = System.nanoTime();
+                    for (int i = 1; i <= count; i++) {
+                        long addStart = System.nanoTime();
+                        queue.add(new ReceiveQueue.Frame("00:11:22:33:44:55", i, 0, frame));
+                        addNanos[i - 1] = System.nanoTime() - addStart;
+                        // the reader gets bursts of frames from the radio, far more than BLE can carry
+                        if (i % BURST == 0) {
+                            Thread.sleep(1);
+                        }
+                    }
+                    long addMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    Arrays.sort(addNanos);
+                    // the maximum is the time slice of the reader when threads outnumber cores
+                    long p99AddNanos = addNanos[count * 99 / 100];
+                    while (queue.getDepth() > 0 || queue.getDispatched() + queue.getDropped() < count) {
+                        Thread.sleep(5);
+                    }
+                    System.out.println(String.format(java.util.Locale.ROOT,
+                        "receiveQueueBurst %s %d frames added in %d ms, add p99 %d us, max %d us, %d dispatched, "
+                            + "%d dropped", policy.getName(), count, addMs, TimeUnit.NANOSECONDS.toMicros(p99AddNanos),
+                        TimeUnit.NANOSECONDS.toMicros(addNanos[count - 1]),
+                        queue.getDispatched(), dropped.get()));
+                    assertEquals(count, queue.getDispatched() + dropped.get());
+                    int previous = 0;
+                    for (int sequence : sequences) {
+                        assertTrue(sequence > previous);
+                        previous = sequence;
+                    }
+                    if (policy == ReceiveQueue.Policy.SPILL) {
+                        assertEquals(0, dropped.get());
+                        // the reader only queues the frame, the file is written by the dispatcher
+                        assertTrue("add p99 " + p99AddNanos / 1000 + " us",
+                            p99AddNanos < TimeUnit.MICROSECONDS.toNanos(MAX_ADD_P99_US));
+                    }
+                } finally {
+                    queue.shutdown();
+                }
+            }
+        } finally {
+            spill.delete();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void capacityHoldsWithConcurrentReaders() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger dropped = new AtomicInteger();
+        final ReceiveQueue queue = new ReceiveQueue(new ReceiveQueue.Dispatcher() {
+            @Override
+            public void dispatch(ReceiveQueue.Frame frame) {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+
+            @Override
+            public void dropped(ReceiveQueue.Frame frame) {
+                dropped.incrementAndGet();
+            }
+        }, File.createTempFile("receive", ".spill"));
+        final int capacity = 64;
+        queue.configure(ReceiveQueue.Policy.DROP_NEWEST, capacity, 0, 0);
+        try {
+            final byte[] data = TestLinks.randomBytes(16);
+            Thread[] readers = new Thread[4];
+            final int perReader = 5000;
+            for (int r = 0; r < readers.length; r++) {
+                final String address = "device-" + r;
+                readers[r] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 1; i <= perReader; i++) {
+                            queue.add(new ReceiveQueue.Frame(address, i, 0, data));
+                        }
+                    }
+                });
+                readers[r].start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            // one frame is held by the dispatcher, the rest wait within capacity
+            assertTrue("max depth " + queue.getMaxDepth(), queue.getMaxDepth() <= capacity);
+            assertTrue(queue.getDepth() <= capacity);
+            assertEquals(readers.length * perReader, dropped.get() + queue.getDepth() + 1);
+        } finally {
+            release.countDown();
+            queue.shutdown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.reactnativexbeeble;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ordering of control and bulk frames by {@link SendScheduler}.
+ */
+public class SendSchedulerTest {
+    @Test(timeout = 60000)
+    public void controlLatencyDuringBulk() throws Exception {
+        final SendScheduler scheduler = new SendScheduler(SendScheduler.DEFAULT_CONTROL_BURST, 0);
+        final long writeMs = 2;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] writers = new Thread[3];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            scheduler.acquire(SendScheduler.Priority.BULK, FileTransfer.DEFAULT_CHUNK_SIZE);
+                            try {
+                                Thread.sleep(writeMs);
+                            } finally {
+                                scheduler.release();
+                            }
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        long max = 0;
+        long sum = 0;
+        int samples = 100;
+        try {
+            for (int i = 0; i < samples; i++) {
+                long start = System.nanoTime();
+                scheduler.acquire(SendScheduler.Priority.CONTROL, 16);
+                long latency = System.nanoTime() - start;
+                scheduler.release();
+                max = Math.max(max, latency);
+                sum += latency;
+                Thread.sleep(1);
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.interrupt();
+                writer.join();
+            }
+        }
+        System.out.println(String.format(java.util.Locale.ROOT,
+            "controlLatencyDuringBulk average %.2f ms, max %.2f ms with %d bulk writers of %d ms frames",
+            sum / 1e6 / samples, max / 1e6, writers.length, writeMs));
+        // a control frame waits only for the frame being written, not for all queued bulk frames
+        assertTrue("control waited " + max / 1e6 + " ms", max < TimeUnit.MILLISECONDS.toNanos(writeMs * 10));
+    }
+}
@@ -0,0 +1,40 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+import com.digi.xbee.api.models.UserDataRelayMessage;
+import com.digi.xbee.api.models.XBeeLocalInterface;
+
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Behavior of {@link SimulatedXbeeLink} itself.
+ */
+public class SimulatedXbeeLinkTest {
+    @Test
+    public void echoRoundTrip() throws Exception {
+        SimulatedXbeeLink.Config config = new SimulatedXbeeLink.Config();
+        config.latencyMs = 2;
+        SimulatedXbeeLink link = new SimulatedXbeeLink(config, new SimulatedXbeeLink.FileSink());
+        final BlockingQueue<byte[]> received = new ArrayBlockingQueue<byte[]>(1);
+        link.addUserDataRelayListener(new IUserDataRelayReceiveListener() {
+            @Override
+            public void userDataRelayReceived(UserDataRelayMessage message) {
+                received.offer(message.getData());
+            }
+        });
+        link.open();
+        try {
+            byte[] frame = TestLinks.randomBytes(32);
+            link.sendUserDataRelay(XBeeLocalInterface.SERIAL, frame);
+            assertArrayEquals(frame, received.poll(1, TimeUnit.SECONDS));
+        } finally {
+            link.close();
+        }
+    }
+}
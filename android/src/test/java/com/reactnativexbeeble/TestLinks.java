@@ -0,0 +1,74 @@
+package com.reactnativexbeeble;
+
+import com.digi.xbee.api.exceptions.XBeeException;
+import com.digi.xbee.api.listeners.IUserDataRelayReceiveListener;
+import com.digi.xbee.api.models.UserDataRelayMessage;
+import com.digi.xbee.api.models.XBeeLocalInterface;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+/**
+ * Test data and {@link SimulatedXbeeLink} setups shared by the tests.
+ */
+final class TestLinks {
+    static final int FILE_SIZE = 64 * 1024;
+    static final int FRAME_SIZE = ChunkSizer.MAX_RELAY_DATA_SIZE;
+
+    private TestLinks() {
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * BLE link with 5 ms latency, 2 % frame loss and a throughput limit of a busy connection.
+     */
+    static SimulatedXbeeLink.Config lossyConfig() {
+        SimulatedXbeeLink.Config config = new SimulatedXbeeLink.Config();
+        config.latencyMs = 5;
+        config.loss = 0.02;
+        config.mtu = 247;
+        config.packetsPerSecond = 800;
+        return config;
+    }
+
+    /**
+     * Sends data over link and waits for the device to confirm it.
+     */
+    static FileTransfer transfer(XbeeLink link, byte[] data, boolean acknowledged) throws Exception {
+        return transfer(link, data, acknowledged, 0, false);
+    }
+
+    static FileTransfer transfer(final XbeeLink link, byte[] data, boolean acknowledged,
+                                 int deltaBlockSize, boolean compress) throws Exception {
+        ChunkSizer sizer = acknowledged
+            ? new ChunkSizer(ChunkSizer.DEFAULT_MTU, FileTransfer.DATA_HEADER_SIZE,
+                FileTransfer.DEFAULT_CHUNK_SIZE, ChunkSizer.MAX_RELAY_DATA_SIZE)
+            : ChunkSizer.fixed(FileTransfer.DEFAULT_CHUNK_SIZE, FileTransfer.LEGACY_HEADER_SIZE);
+        final FileTransfer transfer = new FileTransfer(new FileTransfer.FrameSender() {
+            @Override
+            public void sendFrame(byte[] frame) throws XBeeException {
+                link.sendUserDataRelayAsync(XBeeLocalInterface.SERIAL, frame);
+            }
+        }, new ByteArrayInputStream(data), data.length, sizer, acknowledged, FileTransfer.DEFAULT_MAX_WINDOW, 0);
+        transfer.setDeltaBlockSize(deltaBlockSize);
+        transfer.setCompress(compress);
+        IUserDataRelayReceiveListener listener = new IUserDataRelayReceiveListener() {
+            @Override
+            public void userDataRelayReceived(UserDataRelayMessage message) {
+                transfer.onFrameReceived(message.getData());
+            }
+        };
+        link.addUserDataRelayListener(listener);
+        try {
+            transfer.run();
+        } finally {
+            link.removeUserDataRelayListener(listener);
+        }
+        return transfer;
+    }
+}
@@ -0,0 +1,67 @@
+package com.reactnativexbeeble;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Transmit status correlation against the mesh of {@link SimulatedXbeeLink}.
+ */
+public class TransmitRequestsTest {
+    @Test(timeout = 60000)
+    public void everyFrameAnsweredOnce() throws Exception {
+        SimulatedXbeeLink.Config config = TestLinks.lossyConfig();
+        config.meshLatencyMs = 20;
+        SimulatedXbeeLink link = new SimulatedXbeeLink(config, new SimulatedXbeeLink.FileSink());
+        final TransmitRequests requests = new TransmitRequests(TransmitRequests.DEFAULT_MAX_IN_FLIGHT);
+        link.setTransmitStatusListener(requests.listenerFor("device"));
+        link.open();
+        try {
+            int count = 200;
+            final AtomicInteger delivered = new AtomicInteger();
+            final AtomicInteger failed = new AtomicInteger();
+            final AtomicInteger timedOut = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(count);
+            int maxInFlight = 0;
+            byte[] frame = TestLinks.randomBytes(64);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                TransmitRequests.Pending pending = null;
+                while (pending == null) {
+                    pending = requests.register("device", link.nextFrameId(), 500, new TransmitRequests.Status() {
+                        @Override
+                        public void onStatus(int status, int retries) {
+                            (status == TransmitRequests.STATUS_SUCCESS ? delivered : failed).incrementAndGet();
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onError(String message) {
+                            timedOut.incrementAndGet();
+                            done.countDown();
+                        }
+                    });
+                }
+                maxInFlight = Math.max(maxInFlight, requests.inFlight("device"));
+                link.sendTransmitAsync(pending.frameId, "0013A20012345678", frame, 0, 0);
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            System.out.println(String.format(java.util.Locale.ROOT,
+                "remoteTransmitBatch %d frames in %d ms, %d delivered, %d failed, %d without status",
+                count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), delivered.get(), failed.get(),
+                timedOut.get()));
+            // every frame is answered exactly once and the transmit buffer of the device is never overrun
+            assertEquals(count, delivered.get() + failed.get() + timedOut.get());
+            assertTrue(maxInFlight <= TransmitRequests.DEFAULT_MAX_IN_FLIGHT);
+            assertEquals(0, requests.inFlight("device"));
+        } finally {
+            link.close();
+            requests.shutdown();
+        }
+    }
+}
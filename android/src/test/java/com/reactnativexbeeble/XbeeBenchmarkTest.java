@@ -0,0 +1,243 @@
+package com.reactnativexbeeble;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks of the Java side hot paths, run against {@link SimulatedXbeeLink}
+ * so that no device or emulator is needed.
+ */
+public class XbeeBenchmarkTest {
+    private static final int FILE_SIZE = TestLinks.FILE_SIZE;
+    private static final int FRAME_SIZE = TestLinks.FRAME_SIZE;
+
+    @Test
+    public void chunkEncoding() throws Exception {
+        final byte[] file = TestLinks.randomBytes(FILE_SIZE);
+        // legacy frames carry 'F', a chunk counter from 1 to 255 and the data in file order
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        final List<Integer> counters = new ArrayList<Integer>();
+        FileTransfer check = new FileTransfer(new FileTransfer.FrameSender() {
+            @Override
+            public void sendFrame(byte[] frame) {
+                assertEquals(FileTransfer.FRAME_DATA, frame[0]);
+                counters.add(frame[1] & 0xFF);
+                decoded.write(frame, FileTransfer.LEGACY_HEADER_SIZE, frame.length - FileTransfer.LEGACY_HEADER_SIZE);
+            }
+        }, new ByteArrayInputStream(file), file.length,
+            ChunkSizer.fixed(FileTransfer.DEFAULT_CHUNK_SIZE, FileTransfer.LEGACY_HEADER_SIZE),
+            false, FileTransfer.DEFAULT_MAX_WINDOW, 0);
+        check.run();
+        assertArrayEquals(file, decoded.toByteArray());
+        assertEquals(check.getChunks(), counters.size());
+        for (int i = 0; i < counters.size(); i++) {
+            assertEquals((i + 1) % 255 + 1, (int) counters.get(i));
+        }
+        final FileTransfer.FrameSender discard = new FileTransfer.FrameSender() {
+            @Override
+            public void sendFrame(byte[] frame) {
+                Bench.sink += frame[1];
+            }
+        };
+        Bench.run("chunkEncoding", FILE_SIZE, new Bench.Body() {
+            @Override
+            public Object run() throws Exception {
+                FileTransfer transfer = new FileTransfer(discard, new ByteArrayInputStream(file), file.length,
+                    ChunkSizer.fixed(FileTransfer.DEFAULT_CHUNK_SIZE, FileTransfer.LEGACY_HEADER_SIZE),
+                    false, FileTransfer.DEFAULT_MAX_WINDOW, 0);
+                transfer.run();
+                return transfer.getChunks();
+            }
+        });
+    }
+
+    /**
+     * Acknowledged transfer against a device that acks every frame while it is sent,
+     * measures what the transfer allocates per chunk.
+     */
+    @Test
+    public void acknowledgedChunkAllocation() throws Exception {
+        final byte[] file = TestLinks.randomBytes(FILE_SIZE);
+        final byte[] reply = new byte[5];
+        final FileTransfer[] current = new FileTransfer[1];
+        final FileTransfer.FrameSender device = new FileTransfer.FrameSender() {
+            @Override
+            public void sendFrame(byte[] frame) {
+                if (frame[0] == FileTransfer.FRAME_END) {
+                    current[0].onFrameReceived(new byte[]{FileTransfer.FRAME_COMPLETE, 0});
+                    return;
+                }
+                long acked = frame[0] == FileTransfer.FRAME_DATA
+                    ? FileTransfer.readInt(frame, 1) + frame.length - FileTransfer.DATA_HEADER_SIZE : 0;
+                reply[0] = FileTransfer.FRAME_ACK;
+                FileTransfer.writeInt(reply, 1, acked);
+                current[0].onFrameReceived(reply);
+            }
+        };
+        final long[] chunks = new long[1];
+        Bench.Result result = Bench.run("acknowledgedChunkAllocation", FILE_SIZE, new Bench.Body() {
+            @Override
+            public Object run() throws Exception {
+                FileTransfer transfer = new FileTransfer(device, new ByteArrayInputStream(file), file.length,
+                    new ChunkSizer(ChunkSizer.DEFAULT_MTU, FileTransfer.DATA_HEADER_SIZE,
+                        FileTransfer.DEFAULT_CHUNK_SIZE, ChunkSizer.MAX_RELAY_DATA_SIZE),
+                    true, FileTransfer.DEFAULT_MAX_WINDOW, 0);
+                current[0] = transfer;
+                transfer.run();
+                chunks[0] = transfer.getChunks();
+                return transfer.getChunks();
+            }
+        });
+        if (result.allocatedPerOp >= 0) {
+            double perChunk = result.allocatedPerOp / chunks[0];
+            System.out.println(String.format(java.util.Locale.ROOT,
+                "acknowledgedChunkAllocation %.0f bytes allocated per chunk of %d bytes", perChunk,
+                FILE_SIZE / chunks[0]));
+            // frames are reused, only bookkeeping of the chunk is allocated
+            assertTrue("allocated " + perChunk + " bytes per chunk", perChunk < FILE_SIZE / chunks[0]);
+        }
+    }
+
+    @Test
+    public void sendDecodingArray() throws Exception {
+        byte[] frame = TestLinks.randomBytes(FRAME_SIZE);
+        final JavaOnlyArray array = new JavaOnlyArray();
+        for (byte value : frame) {
+            array.pushInt(value & 0xFF);
+        }
+        assertArrayEquals(frame, RelayData.fromArray(array));
+        final FramePool pool = new FramePool(FramePool.DEFAULT_MAX_PER_LENGTH);
+        Bench.run("sendDecodingArray", FRAME_SIZE, new Bench.Body() {
+            @Override
+            public Object run() {
+                byte[] decoded = RelayData.fromArray(array, pool);
+                pool.release(decoded);
+                return decoded;
+            }
+        });
+    }
+
+    @Test
+    public void sendDecodingBase64() throws Exception {
+        byte[] frame = TestLinks.randomBytes(FRAME_SIZE);
+        final String encoded = java.util.Base64.getEncoder().encodeToString(frame);
+        assertArrayEquals(frame, Base64Codec.decode(encoded));
+        final FramePool pool = new FramePool(FramePool.DEFAULT_MAX_PER_LENGTH);
+        Bench.run("sendDecodingBase64", FRAME_SIZE, new Bench.Body() {
+            @Override
+            public Object run() {
+                byte[] decoded = Base64Codec.decode(encoded, pool);
+                pool.release(decoded);
+                return decoded;
+            }
+        });
+    }
+
+    @Test
+    public void receiveEventArray() throws Exception {
+        final byte[] frame = TestLinks.randomBytes(FRAME_SIZE);
+        JavaOnlyArray array = (JavaOnlyArray) RelayData.toArray(frame, new JavaOnlyArray());
+        assertEquals(frame.length, array.size());
+        for (int i = 0; i < frame.length; i++) {
+            assertEquals(frame[i], array.getInt(i));
+        }
+        Bench.run("receiveEventArray", FRAME_SIZE, new Bench.Body() {
+            @Override
+            public Object run() {
+                WritableMap map = new JavaOnlyMap();
+                map.putInt("sourceInterface", 0);
+                map.putString("id", "00:11:22:33:44:55");
+                map.putInt("seq", 1);
+                map.putArray("data", RelayData.toArray(frame, new JavaOnlyArray()));
+                return map;
+            }
+        });
+    }
+
+    @Test
+    public void receiveEventBase64() throws Exception {
+        final byte[] frame = TestLinks.randomBytes(FRAME_SIZE);
+        for (int length = 0; length < 8; length++) {
+            byte[] part = java.util.Arrays.copyOf(frame, length);
+            assertEquals(java.util.Base64.getEncoder().encodeToString(part), Base64Codec.encode(part));
+        }
+        Bench.run("receiveEventBase64", FRAME_SIZE, new Bench.Body() {
+            @Override
+            public Object run() {
+                WritableMap map = new JavaOnlyMap();
+                map.putInt("sourceInterface", 0);
+                map.putString("id", "00:11:22:33:44:55");
+                map.putInt("seq", 1);
+                RelayData.put(map, frame, true);
+                return map;
+            }
+        });
+    }
+
+    @Test
+    public void fileTransferLoop() throws Exception {
+        final byte[] file = TestLinks.randomBytes(FILE_SIZE);
+        final SimulatedXbeeLink.FileSink sink = new SimulatedXbeeLink.FileSink();
+        final SimulatedXbeeLink link = new SimulatedXbeeLink(new SimulatedXbeeLink.Config(), sink);
+        link.open();
+        try {
+            Bench.run("fileTransferLoop", FILE_SIZE, new Bench.Body() {
+                @Override
+                public Object run() throws Exception {
+                    return TestLinks.transfer(link, file, true).getChunks();
+                }
+            });
+            assertTrue(sink.getCompleted() > 0);
+        } finally {
+            link.close();
+        }
+    }
+
+    @Test
+    public void captureRecord() throws Exception {
+        final byte[] frame = TestLinks.randomBytes(FRAME_SIZE);
+        // frames which fit the buffer between flushes are never dropped
+        FrameCapture fits = new FrameCapture(new File("/dev/null"), FrameCapture.DEFAULT_BUFFER_SIZE, 1000);
+        int count = FrameCapture.DEFAULT_BUFFER_SIZE / (2 * FRAME_SIZE);
+        for (int i = 0; i < count; i++) {
+            fits.record("00:11:22:33:44:55", FrameCapture.SENT_BULK, 0, frame);
+        }
+        fits.stop();
+        assertEquals(count, fits.getFrames());
+        assertEquals(0, fits.getDropped());
+
+        // the flusher writes all the time, what is measured is the cost on the sending thread
+        final FrameCapture capture = new FrameCapture(new File("/dev/null"), FrameCapture.DEFAULT_BUFFER_SIZE, 1);
+        final long[] calls = new long[1];
+        try {
+            Bench.run("captureRecord", FRAME_SIZE, new Bench.Body() {
+                @Override
+                public Object run() {
+                    capture.record("00:11:22:33:44:55", FrameCapture.SENT_BULK, 0, frame);
+                    calls[0]++;
+                    return null;
+                }
+            });
+        } finally {
+            capture.stop();
+        }
+        System.out.println(String.format(java.util.Locale.ROOT, "captureRecord %d frames recorded, %d dropped",
+            capture.getFrames(), capture.getDropped()));
+        // a full buffer drops the frame instead of blocking, every frame is either recorded or counted
+        assertTrue(capture.getFrames() > 0);
+        assertEquals(calls[0], capture.getFrames() + capture.getDropped());
+    }
+}
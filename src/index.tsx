@@ -38,22 +38,250 @@ export interface StartOptions {
   restoreIdentifierKey?: string;
   queueIdentifierKey?: string;
   forceLegacy?: boolean;
+  // size limit of the file cache in bytes, 64 MB by default
+  fileCacheSize?: number;
+}
+
+export interface ScanOptions {
+  namePrefix?: string;
+  manufacturerId?: number;
+  minRssi?: number;
+  rssiDelta?: number;
+  batchInterval?: number;
+  // options of BluetoothLeScanner backend, ignored with forceLegacy
+  scanMode?: 'lowPower' | 'balanced' | 'lowLatency';
+  reportDelay?: number;
+  deviceNames?: string[];
+}
+
+export interface PeripheralBatch {
+  peripherals: Peripheral[];
 }
 
 export interface FileProgress {
   address: string;
+  transferId: string;
   chunks: number;
   bytes: number;
   fileLength: number;
   progress: number;
   speed: number;
+  chunkSize: number;
+  bytesPerSecond: number;
+  window: number;
+  retransmits: number;
+  // bytes the device kept from its current image
+  skippedBytes: number;
+  // bytes of frames written to the device including headers and retransmits
+  wireBytes: number;
+  isDone: boolean;
+}
+
+export interface SimulateOptions {
+  latency?: number;
+  mtu?: number;
+  loss?: number;
+  packetsPerSecond?: number;
+  // ms a transmit request to a remote node takes in the network
+  meshLatency?: number;
+  seed?: number;
+}
+
+export interface ConnectOptions {
+  autoReconnect?: boolean;
+  maxReconnectAttempts?: number;
+  reconnectDelay?: number;
+  maxReconnectDelay?: number;
+  simulate?: SimulateOptions;
+  // control frames sent before a waiting file chunk is let through
+  controlBurst?: number;
+  // limit of bytes written to the device per second, unlimited by default
+  maxBytesPerSecond?: number;
+}
+
+export interface SendFileOptions {
+  address: string;
+  url: string;
+  acknowledged?: boolean;
+  windowSize?: number;
+  offset?: number;
+  chunkSize?: number;
+  maxChunkSize?: number;
+  mtu?: number;
+  // read the url through the file cache, true by default
+  cache?: boolean;
+  // cached file younger than this many ms is used without asking the server
+  cacheMaxAge?: number;
+  // expected hex SHA-256 of the file, a matching cached copy is used without network
+  sha256?: string;
+  // download the whole file into the cache before sending
+  stage?: boolean;
+  prefetchBlocks?: number;
+  // skip blocks of this size the device already has, acknowledged mode only
+  deltaBlockSize?: number;
+  // deflate chunks which get smaller, acknowledged mode only
+  compress?: boolean;
+  // id used to cancel, pause or resume the transfer
+  transferId?: string;
+}
+
+export interface ReceiveFileOptions {
+  address: string;
+  // file to write, a new file in app cache by default
+  path?: string;
+  // resolve with Base64 data instead of writing a file
+  base64?: boolean;
+  // continue existing file at path
+  resume?: boolean;
+  // Base64 payload of the request frame telling the device which file to send
+  request?: string;
+  maxChunkSize?: number;
+  transferId?: string;
+}
+
+export interface ReceiveFileResult {
+  length: number;
+  path?: string;
+  data?: string;
+}
+
+export interface FileReceiveProgress {
+  address: string;
+  transferId: string;
+  bytes: number;
+  fileLength: number;
+  progress: number;
+  bytesPerSecond: number;
+  nacks: number;
   isDone: boolean;
 }
 
+export interface TransferHandle<T> {
+  id: string;
+  done: Promise<T>;
+  cancel(): Promise<void>;
+  pause(): Promise<void>;
+  resume(): Promise<void>;
+}
+
+export interface FanOutOptions extends Omit<SendFileOptions, 'address'> {
+  addresses: string[];
+  concurrency?: number;
+}
+
+export interface FanOutProgress {
+  url: string;
+  devices: number;
+  completed: number;
+  failed: number;
+  bytes: number;
+  totalBytes: number;
+  progress: number;
+  isDone: boolean;
+}
+
+// address -> error message, null when device succeeded
+export type FanOutResult = { [address: string]: string | null };
+
 export interface UserDataRelayData {
   sourceInterface: UserDataRelayInterface;
   id: string;
-  data: number[];
+  seq: number;
+  // Base64 string when receive mode encoding is 'base64'
+  data: number[] | string;
+}
+
+export interface UserDataRelayFrame {
+  sourceInterface: UserDataRelayInterface;
+  seq: number;
+  data: number[] | string;
+}
+
+export interface UserDataRelayBatch {
+  id: string;
+  frames: UserDataRelayFrame[];
+}
+
+export interface RequestMatcher {
+  // reply interface, defaults to the interface request is sent to
+  sourceInterface?: UserDataRelayInterface;
+  // Base64 bytes reply has to start with
+  prefix?: string;
+  idOffset?: number;
+  idLength?: number;
+  replyIdOffset?: number;
+}
+
+export interface UserDataRelayReply {
+  sourceInterface: UserDataRelayInterface;
+  data: number[] | string;
+}
+
+export interface RemoteSendOptions {
+  // maximum hops, 0 is the network maximum
+  radius?: number;
+  // transmit options bit field of the API transmit request
+  transmitOptions?: number;
+  // ms to wait for transmit status, default 10000
+  timeout?: number;
+}
+
+export interface RemoteFrame {
+  // 64-bit address of the remote node in hex, 000000000000FFFF is broadcast
+  destination: string;
+  // Base64 payload
+  data: string;
+}
+
+export interface RemoteStatus {
+  delivered: boolean;
+  // transmit status of the device, 0 is success
+  status?: number;
+  retries?: number;
+  // set when no status was received
+  error?: string;
+}
+
+export interface GetParametersOptions {
+  // ms a cached value may be old, 0 always reads the device, any age by default
+  maxAge?: number;
+  // ms to wait for the responses, default 5000
+  timeout?: number;
+}
+
+export interface SetParametersOptions {
+  // apply the values by AC once all were accepted, default true
+  apply?: boolean;
+  // save the values by WR so they survive reset
+  write?: boolean;
+  timeout?: number;
+}
+
+export interface ParameterValues {
+  // parameter to Base64 value
+  values: { [parameter: string]: string };
+  // parameter to error of failed reads
+  errors: { [parameter: string]: string };
+}
+
+export interface ParameterErrors {
+  errors: { [parameter: string]: string };
+}
+
+export interface ReceiveModeOptions {
+  encoding?: 'array' | 'base64';
+  batch?: boolean;
+  batchInterval?: number;
+  batchMaxFrames?: number;
+  batchMaxBytes?: number;
+  // frames waiting for JS before overflow applies, default 4096
+  queueCapacity?: number;
+  // what happens to frames received while the queue is full, default 'dropOldest'
+  overflow?: 'dropOldest' | 'dropNewest' | 'block' | 'spill';
+  // ms the radio reader waits for space with 'block' before the frame is dropped, default 100
+  blockTimeout?: number;
+  // bytes kept in the spill file with 'spill', default 16 MB
+  maxSpillBytes?: number;
 }
 
 export enum ConnectionPriority {
@@ -62,6 +290,125 @@ export enum ConnectionPriority {
   low = 2,
 }
 
+export type ConnectionState =
+  | 'connecting'
+  | 'connected'
+  | 'reconnecting'
+  | 'disconnecting'
+  | 'closed'
+  | 'failed';
+
+export interface ConnectionStateChange {
+  id: string;
+  state: ConnectionState;
+  previousState: ConnectionState;
+}
+
+export interface LatencyHistogram {
+  count: number;
+  averageMs: number;
+  maxMs: number;
+  boundsMs: number[];
+  counts: number[];
+}
+
+export interface LinkMetrics {
+  bytesSent: number;
+  framesSent: number;
+  bytesReceived: number;
+  framesReceived: number;
+  // received frames dropped by the receive queue
+  framesDropped: number;
+  sendErrors: number;
+  retransmits: number;
+  connects: number;
+  reconnects: number;
+  lastConnectMs: number;
+  sendLatency: LatencyHistogram;
+  connectTime: LatencyHistogram;
+}
+
+export interface DeviceMetrics extends LinkMetrics {
+  queueDepth: number;
+}
+
+export interface ReceiveQueueMetrics {
+  overflow: 'dropOldest' | 'dropNewest' | 'block' | 'spill';
+  capacity: number;
+  depth: number;
+  maxDepth: number;
+  added: number;
+  dispatched: number;
+  dropped: number;
+  spilled: number;
+  blockedMs: number;
+}
+
+export interface Metrics {
+  global: LinkMetrics;
+  devices: { [address: string]: DeviceMetrics };
+  bridgeEvents: { [eventName: string]: number };
+  receiveQueue: ReceiveQueueMetrics;
+}
+
+export interface BackgroundModeOptions {
+  notificationTitle?: string;
+  notificationText?: string;
+}
+
+export interface TransferState {
+  transferId: string | null;
+  address: string;
+  direction: 'send' | 'receive';
+  bytes: number;
+  fileLength: number;
+}
+
+export interface SessionState {
+  background: boolean;
+  devices: { id: string; state: ConnectionState }[];
+  transfers: TransferState[];
+}
+
+export interface TransferFinished {
+  transferId: string;
+  error: string | null;
+}
+
+export interface CaptureOptions {
+  // file to write, new file in app cache by default
+  path?: string;
+  // bytes buffered between flushes, default 1 MB
+  bufferSize?: number;
+  // ms between flushes to the file, default 1000
+  flushInterval?: number;
+}
+
+export interface CaptureResult {
+  path: string;
+  frames: number;
+  bytes: number;
+  // frames lost because the buffer was full
+  dropped: number;
+}
+
+export interface ReplayOptions {
+  path: string;
+  // 1 plays with captured timing, 2 twice as fast, 0 as fast as possible
+  speed?: number;
+  simulate?: SimulateOptions;
+}
+
+export interface ReplayResult {
+  frames: number;
+  bytesSent: number;
+  bytesReceived: number;
+  capturedMs: number;
+  elapsedMs: number;
+  // how far sends fell behind the captured timing
+  maxLagMs: number;
+}
+
 export enum UserDataRelayInterface {
   serial = 0,
   ble = 1,
@@ -69,6 +416,8 @@ export enum UserDataRelayInterface {
 }
 
 class XbeeBleManager {
+  private transferCounter = 0;
+
   constructor() {}
 
   start(options?: StartOptions | null) {
@@ -86,9 +435,12 @@ class XbeeBleManager {
     });
   }
 
-  scan() {
+  scan(options?: ScanOptions | null) {
     return new Promise<void>((fulfill, reject) => {
-      XbeeBle.scan((error: any) => {
+      if (options == null) {
+        options = {};
+      }
+      XbeeBle.scan(options, (error: any) => {
         if (error) {
           reject(error);
         } else {
@@ -130,9 +482,13 @@ class XbeeBleManager {
     });
   }
 
-  sendFile(options: any) {
+  sendUserDataRelayBase64(
+    address: string,
+    iface: UserDataRelayInterface,
+    data: string
+  ) {
     return new Promise<void>((fulfill, reject) => {
-      XbeeBle.sendFile(options, (error: any) => {
+      XbeeBle.sendUserDataRelayBase64(address, iface, data, (error: any) => {
         if (error) {
           reject(error);
         } else {
@@ -142,9 +498,271 @@ class XbeeBleManager {
     });
   }
 
-  connectToDevice(address: string, password: string) {
+  request(
+    address: string,
+    iface: UserDataRelayInterface,
+    data: string,
+    matcher?: RequestMatcher | null,
+    timeout?: number
+  ) {
+    return new Promise<UserDataRelayReply>((fulfill, reject) => {
+      if (matcher == null) {
+        matcher = {};
+      }
+      XbeeBle.request(
+        address,
+        iface,
+        data,
+        matcher,
+        timeout || 0,
+        (error: any, reply: UserDataRelayReply) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(reply);
+          }
+        }
+      );
+    });
+  }
+
+  sendUserDataRelayBatch(
+    address: string,
+    iface: UserDataRelayInterface,
+    frames: string[]
+  ) {
+    return new Promise<number>((fulfill, reject) => {
+      XbeeBle.sendUserDataRelayBatch(
+        address,
+        iface,
+        frames,
+        (error: any, sent: number) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(sent);
+          }
+        }
+      );
+    });
+  }
+
+  sendRemote(
+    address: string,
+    destination: string,
+    data: string,
+    options?: RemoteSendOptions | null
+  ) {
+    return new Promise<RemoteStatus>((fulfill, reject) => {
+      XbeeBle.sendRemote(
+        address,
+        destination,
+        data,
+        options || {},
+        (error: any, status: RemoteStatus) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(status);
+          }
+        }
+      );
+    });
+  }
+
+  sendRemoteBatch(
+    address: string,
+    frames: RemoteFrame[],
+    options?: RemoteSendOptions | null
+  ) {
+    return new Promise<RemoteStatus[]>((fulfill, reject) => {
+      XbeeBle.sendRemoteBatch(
+        address,
+        frames,
+        options || {},
+        (error: any, statuses: RemoteStatus[]) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(statuses);
+          }
+        }
+      );
+    });
+  }
+
+  getParameters(
+    address: string,
+    parameters: string[],
+    options?: GetParametersOptions | null
+  ) {
+    return new Promise<ParameterValues>((fulfill, reject) => {
+      XbeeBle.getParameters(
+        address,
+        parameters,
+        options || {},
+        (error: any, result: ParameterValues) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(result);
+          }
+        }
+      );
+    });
+  }
+
+  setParameters(
+    address: string,
+    values: { [parameter: string]: string },
+    options?: SetParametersOptions | null
+  ) {
+    return new Promise<ParameterErrors>((fulfill, reject) => {
+      XbeeBle.setParameters(
+        address,
+        values,
+        options || {},
+        (error: any, result: ParameterErrors) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(result);
+          }
+        }
+      );
+    });
+  }
+
+  // parameters omitted drops all cached values of the device
+  invalidateParameters(address: string, parameters?: string[] | null) {
+    XbeeBle.invalidateParameters(address, parameters || null);
+  }
+
+  sendFile(options: SendFileOptions): Promise<void> {
+    return XbeeBle.sendFile(options);
+  }
+
+  // starts sendFile and returns handle to control the transfer, done is rejected with code E_CANCELLED on cancel
+  startFileTransfer(options: SendFileOptions): TransferHandle<void> {
+    const id = options.transferId || this.nextTransferId();
+    return this.transferHandle(
+      id,
+      this.sendFile({ ...options, transferId: id })
+    );
+  }
+
+  receiveFile(options: ReceiveFileOptions): Promise<ReceiveFileResult> {
+    return XbeeBle.receiveFile(options);
+  }
+
+  // starts receiveFile and returns handle, a receive can be cancelled but not paused
+  startFileReceive(
+    options: ReceiveFileOptions
+  ): TransferHandle<ReceiveFileResult> {
+    const id = options.transferId || this.nextTransferId();
+    return this.transferHandle(
+      id,
+      this.receiveFile({ ...options, transferId: id })
+    );
+  }
+
+  cancelTransfer(transferId: string): Promise<void> {
+    return XbeeBle.cancelTransfer(transferId);
+  }
+
+  pauseTransfer(transferId: string): Promise<void> {
+    return XbeeBle.pauseTransfer(transferId);
+  }
+
+  resumeTransfer(transferId: string): Promise<void> {
+    return XbeeBle.resumeTransfer(transferId);
+  }
+
+  private nextTransferId() {
+    this.transferCounter += 1;
+    return `transfer-${Date.now()}-${this.transferCounter}`;
+  }
+
+  private transferHandle<T>(id: string, done: Promise<T>): TransferHandle<T> {
+    return {
+      id,
+      done,
+      cancel: () => this.cancelTransfer(id),
+      pause: () => this.pauseTransfer(id),
+      resume: () => this.resumeTransfer(id),
+    };
+  }
+
+  setReceiveMode(options: ReceiveModeOptions) {
     return new Promise<void>((fulfill, reject) => {
-      XbeeBle.connectToDevice(address, password, (error: any) => {
+      XbeeBle.setReceiveMode(options, (error: any) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
+  sendFileToDevices(options: FanOutOptions): Promise<FanOutResult> {
+    return XbeeBle.sendFileToDevices(options);
+  }
+
+  // cancelling resolves done with 'File transfer cancelled' for devices not finished yet
+  startFileTransferToDevices(
+    options: FanOutOptions
+  ): TransferHandle<FanOutResult> {
+    const id = options.transferId || this.nextTransferId();
+    return this.transferHandle(
+      id,
+      this.sendFileToDevices({ ...options, transferId: id })
+    );
+  }
+
+  sendUserDataRelayToDevices(
+    addresses: string[],
+    iface: UserDataRelayInterface,
+    data: string
+  ) {
+    return new Promise<FanOutResult>((fulfill, reject) => {
+      XbeeBle.sendUserDataRelayToDevices(
+        addresses,
+        iface,
+        data,
+        (error: any, result: FanOutResult) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(result);
+          }
+        }
+      );
+    });
+  }
+
+  clearStagedFiles() {
+    return new Promise<void>((fulfill, reject) => {
+      XbeeBle.clearStagedFiles((error: any) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
+  connectToDevice(
+    address: string,
+    password: string,
+    options?: ConnectOptions | null
+  ) {
+    return new Promise<void>((fulfill, reject) => {
+      if (options == null) {
+        options = {};
+      }
+      XbeeBle.connectToDevice(address, password, options, (error: any) => {
         if (error) {
           reject(error);
         } else {
@@ -166,6 +784,77 @@ class XbeeBleManager {
     });
   }
 
+  getConnectionState(address: string) {
+    return new Promise<ConnectionState>((fulfill, reject) => {
+      XbeeBle.getConnectionState(
+        address,
+        (error: any, state: ConnectionState) => {
+          if (error) {
+            reject(error);
+          } else {
+            fulfill(state);
+          }
+        }
+      );
+    });
+  }
+
+  getMetrics() {
+    return new Promise<Metrics>((fulfill, reject) => {
+      XbeeBle.getMetrics(null, (error: any, metrics: Metrics) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(metrics);
+        }
+      });
+    });
+  }
+
+  getDeviceMetrics(address: string) {
+    return new Promise<DeviceMetrics>((fulfill, reject) => {
+      XbeeBle.getMetrics(address, (error: any, metrics: DeviceMetrics) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(metrics);
+        }
+      });
+    });
+  }
+
+  setMetricsInterval(interval: number) {
+    XbeeBle.setMetricsInterval(interval);
+  }
+
+  resetMetrics() {
+    XbeeBle.resetMetrics();
+  }
+
+  startBackgroundMode(options?: BackgroundModeOptions | null): Promise<void> {
+    return XbeeBle.startBackgroundMode(options || {});
+  }
+
+  stopBackgroundMode(): Promise<void> {
+    return XbeeBle.stopBackgroundMode();
+  }
+
+  getSessionState(): Promise<SessionState> {
+    return XbeeBle.getSessionState();
+  }
+
+  startCapture(options?: CaptureOptions | null): Promise<string> {
+    return XbeeBle.startCapture(options || {});
+  }
+
+  stopCapture(): Promise<CaptureResult> {
+    return XbeeBle.stopCapture();
+  }
+
+  replayCapture(options: ReplayOptions): Promise<ReplayResult> {
+    return XbeeBle.replayCapture(options);
+  }
+
   enableBluetooth() {
     return new Promise<void>((fulfill, reject) => {
       XbeeBle.enableBluetooth((error: null) => {